@@ -0,0 +1,88 @@
+import benchmarks.Workloads;
+
+/**
+ * The cases of the PricingBenchmark regression suite, for the JMH
+ * benchmarks in the benchmarks package.
+ */
+public class PricingWorkloads implements Workloads {
+    private static final MarketData MKT = new MarketData(10.0, 100.0, 0.05, 0.25, 0.0);
+
+    @Override
+    public Workload binom(String style, int steps, String kernel) {
+        final Derivative deriv;
+        switch (style) {
+            case "european": deriv = new VanillaOption(100.0, false, false, 1.0); break;
+            case "american": deriv = new VanillaOption(100.0, false, true, 1.0); break;
+            case "bermudan": deriv = new BermudanOption(100.0, false, 1.0, 0.25, 0.75); break;
+            default: throw new IllegalArgumentException("Unknown exercise style: " + style);
+        }
+        final LatticeOptions options;
+        switch (kernel) {
+            case "scalar": options = new LatticeOptions(); break;
+            case "vector":
+                // A silent fallback would time the scalar loop twice
+                if (SliceKernel.VECTOR == SliceKernel.SCALAR)
+                    throw new IllegalStateException("Vector kernel not loaded; enable jdk.incubator.vector");
+                options = LatticeOptions.vector();
+                break;
+            default: throw new IllegalArgumentException("Unknown kernel: " + kernel);
+        }
+        return () -> Library.binom(deriv, MKT, steps, options).FV;
+    }
+
+    @Override
+    public Workload impvol(String style, double strike) {
+        boolean american = style.equals("american");
+        if (!american && !style.equals("european"))
+            throw new IllegalArgumentException("Unknown exercise style: " + style);
+        final VanillaOption option = new VanillaOption(strike, false, american, 1.0);
+        double price = american ? Library.binom(option, MKT, 50).FV : BlackScholes.price(option, MKT).FV;
+        final MarketData quote = new MarketData(price, 100.0, 0.05, 0.2, 0.0);
+        return () -> Library.impvol(option, quote, 50, 100, 1e-4, null).impvol;
+    }
+
+    @Override
+    public Workload callback(String callback, int steps) {
+        final Derivative deriv;
+        switch (callback) {
+            case "primitive": deriv = new VanillaOption(100.0, false, true, 1.0); break;
+            case "node": deriv = new NodePut(100.0, 1.0); break;
+            default: throw new IllegalArgumentException("Unknown callback: " + callback);
+        }
+        return () -> Library.binom(deriv, MKT, steps).FV;
+    }
+
+    @Override
+    public Workload chain() {
+        final OptionsChart chart = new OptionsChart("BENCH", 100.0, 45.0, 0.015);
+        chart.setOutputFile(null);
+        chart.displayOptionsChain(0.25, MKT);
+        return () -> {
+            chart.displayOptionsChain(0.25, MKT);
+            return 0.0;
+        };
+    }
+
+    /**
+     * American put written against the legacy Node callbacks only, so the
+     * engines reach it through Derivative's allocating adapters.
+     */
+    private static final class NodePut extends Derivative {
+        private final double strike;
+
+        NodePut(double strike, double maturity) {
+            super(maturity);
+            this.strike = strike;
+        }
+
+        @Override
+        public void terminalCondition(Node n) {
+            n.optionValue = Math.max(0, strike - n.stockPrice);
+        }
+
+        @Override
+        public void valuationTest(Node n, double currentTime) {
+            n.optionValue = Math.max(n.optionValue, strike - n.stockPrice);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Library.binom across step counts, exercise styles and slice kernels.
+ * The forks enable jdk.incubator.vector so the vector kernel is live.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class BinomBenchmark {
+    @Param({"50", "200", "1000", "5000", "20000"})
+    public int steps;
+
+    @Param({"european", "american", "bermudan"})
+    public String style;
+
+    @Param({"scalar", "vector"})
+    public String kernel;
+
+    private Workloads.Workload workload;
+
+    @Setup
+    public void setUp() {
+        workload = Workloads.load().binom(style, steps, kernel);
+    }
+
+    @Benchmark
+    public double binom() {
+        return workload.run();
+    }
+}
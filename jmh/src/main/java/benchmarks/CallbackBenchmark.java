@@ -0,0 +1,47 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Library.binom on an American put through the primitive callbacks against
+ * the legacy Node ones. Under -prof gc the primitive path allocates only
+ * the per-call workspace; the Node path matches it only when escape
+ * analysis removes the adapter's Node, which B/op shows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallbackBenchmark {
+    @Param({"200", "1000", "5000"})
+    public int steps;
+
+    @Param({"primitive", "node"})
+    public String callback;
+
+    private Workloads.Workload workload;
+
+    @Setup
+    public void setUp() {
+        workload = Workloads.load().callback(callback, steps);
+    }
+
+    @Benchmark
+    public double binom() {
+        return workload.run();
+    }
+}
@@ -0,0 +1,42 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Library.impvol across moneyness, on the lattice and in closed form */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImpvolBenchmark {
+    @Param({"80", "90", "100", "110", "120"})
+    public double strike;
+
+    @Param({"european", "american"})
+    public String style;
+
+    private Workloads.Workload workload;
+
+    @Setup
+    public void setUp() {
+        workload = Workloads.load().impvol(style, strike);
+    }
+
+    @Benchmark
+    public double impvol() {
+        return workload.run();
+    }
+}
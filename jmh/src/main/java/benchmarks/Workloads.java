@@ -0,0 +1,57 @@
+package benchmarks;
+
+/**
+ * The priced workloads, built by PricingWorkloads in the library's default
+ * package. JMH only generates code for benchmarks in a named package, and a
+ * named package cannot see default-package classes, so the benchmarks reach
+ * the library through this interface.
+ */
+public interface Workloads {
+    /** One priced operation; the result keeps the work live */
+    interface Workload {
+        double run();
+    }
+
+    /**
+     * Library.binom on an ATM one-year put.
+     *
+     * @param style european, american or bermudan
+     * @param steps Lattice steps
+     * @param kernel scalar or vector; vector fails when the Vector API
+     *               kernel is not loaded
+     */
+    Workload binom(String style, int steps, String kernel);
+
+    /**
+     * Library.impvol on a one-year put quoted at sigma = 25%, from a 20% guess.
+     *
+     * @param style european or american
+     * @param strike Strike price, spot 100
+     */
+    Workload impvol(String style, double strike);
+
+    /**
+     * Library.binom on an ATM one-year American put, through the primitive
+     * terminal/exercise callbacks or the legacy Node ones.
+     *
+     * @param callback primitive or node
+     * @param steps Lattice steps
+     */
+    Workload callback(String callback, int steps);
+
+    /**
+     * OptionsChart.displayOptionsChain for a three-month chain. The chart
+     * is built and priced once here and writes no file, so the workload is
+     * the chain generation alone.
+     */
+    Workload chain();
+
+    /** Loads PricingWorkloads from the default package */
+    static Workloads load() {
+        try {
+            return (Workloads) Class.forName("PricingWorkloads").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("PricingWorkloads is not on the classpath", e);
+        }
+    }
+}
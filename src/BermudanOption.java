@@ -5,9 +5,9 @@
  */
 class BermudanOption extends VanillaOption {
     /** Start of the exercise window */
-    public double window_begin;
+    public final double window_begin;
     /** End of the exercise window */
-    public double window_end;
+    public final double window_end;
     
     /**
      * Creates a new Bermudan option.
@@ -35,10 +35,9 @@ class BermudanOption extends VanillaOption {
             throw new IllegalArgumentException("Window begin must be non-negative");
     }
 
+    /** VanillaOption.exercise only exercises inside the window */
     @Override
-    public void valuationTest(Node n, double currentTime) {
-        if (currentTime >= window_begin && currentTime <= window_end) {
-            super.valuationTest(n, currentTime);
-        }
+    public boolean exercisable(double t) {
+        return t >= window_begin && t <= window_end;
     }
 }
\ No newline at end of file
@@ -2,12 +2,25 @@
  * Abstract base class for all derivative instruments.
  * This class defines the common interface for all financial derivatives
  * that can be priced using the binomial model.
+ * 
+ * Instruments are immutable and hold no market state: the pricing engines
+ * pass the market context into every call, so one instrument can be priced
+ * under many scenarios concurrently.
  */
 abstract class Derivative {
-    /** Market data used for pricing */
-    protected MarketData marketData;
+    /** Early exercise may be optimal anywhere; every node is tested */
+    public static final int EXERCISE_ANYWHERE = 0;
+    /** Early exercise is only optimal below a single critical spot (puts) */
+    public static final int EXERCISE_BELOW = -1;
+    /** Early exercise is only optimal above a single critical spot (calls) */
+    public static final int EXERCISE_ABOVE = 1;
+    
     /** Time to maturity of the derivative */
-    protected double maturity;
+    protected final double maturity;
+    
+    protected Derivative(double maturity) {
+        this.maturity = maturity;
+    }
     
     /**
      * Calculates the terminal payoff of the derivative.
@@ -26,8 +39,72 @@ abstract class Derivative {
      */
     public abstract void valuationTest(Node n, double currentTime);
     
-    public void setMarketData(MarketData data) {
-        this.marketData = data;
+    /**
+     * Primitive form of {@link #terminalCondition(Node)}.
+     * The lattice engines call this at every terminal node, so overriding it
+     * avoids allocating a Node per node. The default adapts terminalCondition.
+     * 
+     * @param S The stock price at the terminal node
+     * @return The payoff at maturity
+     */
+    public double terminal(double S) {
+        Node n = new Node(S, 0);
+        terminalCondition(n);
+        return n.optionValue;
+    }
+    
+    /**
+     * Primitive form of {@link #valuationTest(Node, double)}.
+     * Returns the node value after the early exercise test, given the
+     * continuation value. The default adapts valuationTest.
+     * 
+     * @param S The stock price at the node
+     * @param cont The discounted continuation value
+     * @param t The current time in the tree
+     * @return The node value after any early exercise
+     */
+    public double exercise(double S, double cont, double t) {
+        Node n = new Node(S, 0);
+        n.optionValue = cont;
+        valuationTest(n, t);
+        return n.optionValue;
+    }
+    
+    /**
+     * Where in a time slice early exercise can be optimal. A one-sided
+     * answer lets the engines value each slice as pure continuation and
+     * then test nodes only from that edge inwards, stopping at the first
+     * node that is not exercised. The default tests every node.
+     * 
+     * @return EXERCISE_ANYWHERE, EXERCISE_BELOW or EXERCISE_ABOVE
+     */
+    public int exerciseSide() {
+        return EXERCISE_ANYWHERE;
+    }
+    
+    /**
+     * Whether early exercise is allowed at time t. The lattice engines ask
+     * once per time slice before induction starts, and roll slices where
+     * this is false back as pure discounting without calling exercise.
+     * A discrete exercise schedule answers true only on its dates. The
+     * default allows exercise at any time.
+     * 
+     * @param t The slice time, on the same clock as exercise
+     * @return False only if exercise(S, cont, t) returns cont for every S
+     */
+    public boolean exercisable(double t) {
+        return true;
+    }
+    
+    /**
+     * Whether Library.price may value this contract in closed form instead
+     * of on a lattice. False unless the class knows its payoff is a plain
+     * European call or put; see VanillaOption.
+     * 
+     * @return True if the Black-Scholes value is exact for this contract
+     */
+    public boolean hasClosedForm() {
+        return false;
     }
     
     public double getMaturity() {
@@ -0,0 +1,89 @@
+import java.util.Arrays;
+
+/**
+ * Deterministic discount curve built from continuously compounded zero
+ * rates at pillar times.
+ *
+ * Log discount factors are interpolated linearly between pillars, so the
+ * forward rate is constant within each interval. Before the first pillar
+ * the first zero rate applies; beyond the last, the last forward rate.
+ * Times are measured from the snapshot's t0, like lattice slice times.
+ *
+ * Attach a curve with MarketData.withDiscountCurve.
+ */
+final class DiscountCurve {
+    /** Pillar times, positive and strictly ascending */
+    private final double[] times;
+    /** ln D(t) at each pillar, i.e. -zeroRate * t */
+    private final double[] logDiscounts;
+
+    /**
+     * Creates a curve from zero rates.
+     *
+     * @param times Pillar times, positive and strictly ascending
+     * @param zeroRates Continuously compounded zero rate at each pillar
+     * @throws IllegalArgumentException if the pillars are invalid
+     */
+    public DiscountCurve(double[] times, double[] zeroRates) {
+        if (times.length == 0 || times.length != zeroRates.length)
+            throw new IllegalArgumentException("Curve needs one zero rate per pillar time");
+        this.times = times.clone();
+        this.logDiscounts = new double[times.length];
+        for (int k = 0; k < times.length; k++) {
+            if (!(times[k] > (k == 0 ? 0 : times[k - 1])))
+                throw new IllegalArgumentException("Pillar times must be positive and ascending");
+            if (Double.isNaN(zeroRates[k]) || Double.isInfinite(zeroRates[k]))
+                throw new IllegalArgumentException("Zero rates must be finite");
+            logDiscounts[k] = -zeroRates[k] * times[k];
+        }
+    }
+
+    /**
+     * Discount factor from t0 to t0 + t.
+     *
+     * @param t Time measured from t0
+     * @return D(t), 1 at t = 0
+     */
+    public double discount(double t) {
+        return Math.exp(logDiscount(t));
+    }
+
+    /**
+     * Continuously compounded zero rate to t0 + t.
+     *
+     * @param t Time measured from t0
+     * @return -ln D(t) / t; the first zero rate at t = 0
+     */
+    public double zeroRate(double t) {
+        return t > 0 ? -logDiscount(t) / t : -logDiscounts[0] / times[0];
+    }
+
+    /**
+     * Instantaneous forward rate at t0 + t, the slope of -ln D(t); at a
+     * pillar, the slope of the interval that starts there.
+     *
+     * @param t Time measured from t0
+     * @return The forward rate
+     */
+    public double forwardRate(double t) {
+        int last = times.length - 1;
+        if (t < times[0] || last == 0) return -logDiscounts[0] / times[0];
+        int k = Arrays.binarySearch(times, t);
+        int hi = Math.min(k >= 0 ? k + 1 : -k - 1, last);
+        return -(logDiscounts[hi] - logDiscounts[hi - 1]) / (times[hi] - times[hi - 1]);
+    }
+
+    private double logDiscount(double t) {
+        if (t <= times[0]) return logDiscounts[0] / times[0] * t;
+        int last = times.length - 1;
+        int k = Arrays.binarySearch(times, t);
+        if (k >= 0) return logDiscounts[k];
+        int hi = Math.min(-k - 1, last);
+        int lo = hi - 1;
+        if (lo < 0) return logDiscounts[0] / times[0] * t;
+        double slope = (logDiscounts[hi] - logDiscounts[lo]) / (times[hi] - times[lo]);
+        // Past the last pillar the slope is the last forward rate
+        int anchor = t > times[last] ? hi : lo;
+        return logDiscounts[anchor] + slope * (t - times[anchor]);
+    }
+}
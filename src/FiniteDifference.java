@@ -0,0 +1,275 @@
+/**
+ * Crank-Nicolson finite-difference engine for the Black-Scholes PDE.
+ * 
+ * The PDE is solved in log-spot x = ln S on a uniform grid centred on the
+ * current spot, so the root spot is always a grid node. Time runs
+ * backwards from maturity: the first two steps are taken as four
+ * implicit-Euler half steps (Rannacher start) to damp the payoff kink,
+ * then Crank-Nicolson takes over. At both edges the grid assumes zero
+ * gamma, which holds for any payoff that is linear far from the strike.
+ * The drift is r - q. With cash dividends the grid holds the escrowed
+ * spot (MarketData.escrowed), and the exercise test adds back the
+ * dividends still to be paid.
+ * 
+ * Early exercise comes from the same Derivative.exercise callback as the
+ * lattice: exercise(S, -infinity, t) is the exercise value at S, or
+ * -infinity where exercise is not allowed. Payoffs that exercise on one
+ * side of a single boundary (Derivative.exerciseSide) use the
+ * Brennan-Schwartz sweep, which solves the constrained tridiagonal system
+ * exactly in one pass. Other payoffs fall back to projected SOR.
+ * 
+ * One solve prices the whole spot grid. Delta, gamma and theta come from
+ * the nodes around the spot, and the grid is left in the workspace for
+ * callers that need neighbouring spots.
+ */
+final class FiniteDifference {
+    /** Grid half-width in standard deviations of ln S at maturity */
+    private static final double WIDTH_STDEVS = 5.0;
+    /** Full steps replaced by implicit-Euler half steps */
+    private static final int RANNACHER_STEPS = 2;
+    /** Over-relaxation factor for projected SOR */
+    private static final double SOR_OMEGA = 1.2;
+    private static final double SOR_TOL = 1e-10;
+    private static final int SOR_MAX_ITER = 1000;
+
+    private FiniteDifference() {
+    }
+
+    /**
+     * Reusable grid and tridiagonal arrays; one per thread, like
+     * LatticeWorkspace. After a solve, spots[0..m] and values[0..m] hold
+     * the priced grid; with cash dividends the spots are escrowed spots.
+     */
+    static final class Workspace {
+        double[] spots = new double[0];
+        double[] values = new double[0];
+        double[] obstacle = new double[0];
+        double[] rhs = new double[0];
+        double[] lower = new double[0];
+        double[] diag = new double[0];
+        double[] upper = new double[0];
+        /** Eliminated off-diagonal and pivots of the factored system */
+        double[] factor = new double[0];
+        double[] pivot = new double[0];
+
+        /** Grows the arrays, if needed, to fit m space steps */
+        void ensure(int m) {
+            if (values.length < m + 1) {
+                spots = new double[m + 1];
+                values = new double[m + 1];
+                obstacle = new double[m + 1];
+                rhs = new double[m + 1];
+                lower = new double[m + 1];
+                diag = new double[m + 1];
+                upper = new double[m + 1];
+                factor = new double[m + 1];
+                pivot = new double[m + 1];
+            }
+        }
+    }
+
+    /**
+     * Prices a derivative on a timeSteps x spaceSteps grid.
+     * 
+     * @param deriv The derivative to price
+     * @param mkt Market data for calculation
+     * @param timeSteps Number of time steps
+     * @param spaceSteps Number of space steps; rounded up to an even number
+     * @param work Scratch arrays, grown as needed
+     * @return Output object containing pricing results
+     */
+    static Output price(final Derivative deriv, final MarketData mkt, int timeSteps, int spaceSteps,
+                        final Workspace work) {
+        Output output = new Output();
+        int m = spaceSteps + (spaceSteps & 1);
+        int centre = m / 2;
+        work.ensure(m);
+        double[] spots = work.spots;
+        double[] values = work.values;
+
+        double T = deriv.getMaturity() - mkt.t0;
+        double dt = T / timeSteps;
+        MarketData process = mkt.escrowed(T);
+        double halfWidth = WIDTH_STDEVS * mkt.sigma * Math.sqrt(T);
+        if (deriv instanceof VanillaOption) {
+            // Keep the strike well inside the grid for far-from-the-money contracts
+            double moneyness = Math.abs(Math.log(((VanillaOption) deriv).getStrike() / process.S));
+            halfWidth = Math.max(halfWidth, moneyness + 0.5 * halfWidth);
+        }
+        double h = 2 * halfWidth / m;
+        for (int i = 0; i <= m; i++) {
+            spots[i] = process.S * Math.exp((i - centre) * h);
+            values[i] = deriv.terminal(spots[i]);
+        }
+
+        // Spatial operator L V_i = a V_{i-1} + b V_i + c V_{i+1}
+        double variance = mkt.sigma * mkt.sigma;
+        double drift = mkt.r - mkt.q - 0.5 * variance;
+        double a = 0.5 * variance / (h * h) - 0.5 * drift / h;
+        double b = -variance / (h * h) - mkt.r;
+        double c = 0.5 * variance / (h * h) + 0.5 * drift / h;
+
+        // Exercise on the low side (puts) or high side (calls) for the
+        // Brennan-Schwartz sweep; anywhere means projected SOR
+        int side = deriv.exerciseSide();
+
+        int rannacher = Math.min(RANNACHER_STEPS, timeSteps);
+        double centreBeforeLast = values[centre];
+        // Implicit weight of the current scheme: 1 for Euler, 0.5 for Crank-Nicolson
+        double weight = -1;
+        for (int k = 0; k < timeSteps; k++) {
+            if (k < rannacher) {
+                for (int half = 1; half <= 2; half++) {
+                    if (weight != 1.0) {
+                        weight = 1.0;
+                        assemble(work, m, h, a, b, c, weight, 0.5 * dt, side);
+                    }
+                    double t = Library.sliceTime(T, 2 * timeSteps, 2 * (timeSteps - k) - half);
+                    step(deriv, work, m, h, a, b, c, weight, 0.5 * dt, mkt.t0 + t, mkt.dividendPV(t, T), side);
+                }
+            } else {
+                if (weight != 0.5) {
+                    weight = 0.5;
+                    assemble(work, m, h, a, b, c, weight, dt, side);
+                }
+                double t = Library.sliceTime(T, timeSteps, timeSteps - k - 1);
+                step(deriv, work, m, h, a, b, c, weight, dt, mkt.t0 + t, mkt.dividendPV(t, T), side);
+            }
+            if (k == timeSteps - 2) centreBeforeLast = values[centre];
+        }
+
+        double S = spots[centre];
+        double dx = (values[centre + 1] - values[centre - 1]) / (2 * h);
+        double dxx = (values[centre + 1] - 2 * values[centre] + values[centre - 1]) / (h * h);
+        output.FV = values[centre];
+        output.fugit = deriv.getMaturity();
+        output.delta = dx / S;
+        output.gamma = (dxx - dx) / (S * S);
+        if (timeSteps >= 2) {
+            // The centre node one step in is off the spot by the escrow paid down since
+            double escrowShift = mkt.dividendPV(dt, T) - mkt.dividendPV(0, T);
+            output.theta = (centreBeforeLast - output.delta * escrowShift - output.FV) / dt;
+        }
+        return output;
+    }
+
+    /**
+     * Builds (I - theta dt L) on the interior nodes 1..m-1 and factors it
+     * once for every step that shares theta and dt. The zero-gamma edges
+     * V_0 = alpha V_1 + beta V_2 (and the mirror at V_m) are folded into
+     * the first and last rows, so the system stays tridiagonal.
+     */
+    private static void assemble(Workspace work, int m, double h, double a, double b, double c,
+                                 double theta, double dt, int side) {
+        double[] lower = work.lower, diag = work.diag, upper = work.upper;
+        double w = theta * dt;
+        for (int i = 1; i < m; i++) {
+            lower[i] = -w * a;
+            diag[i] = 1 - w * b;
+            upper[i] = -w * c;
+        }
+        double alpha = 2 / (1 + 0.5 * h), beta = -(1 - 0.5 * h) / (1 + 0.5 * h);
+        diag[1] = 1 - w * (b + a * alpha);
+        upper[1] = -w * (c + a * beta);
+        lower[1] = 0;
+        double alphaTop = 2 / (1 - 0.5 * h), betaTop = -(1 + 0.5 * h) / (1 - 0.5 * h);
+        diag[m - 1] = 1 - w * (b + c * alphaTop);
+        lower[m - 1] = -w * (a + c * betaTop);
+        upper[m - 1] = 0;
+
+        double[] factor = work.factor, pivot = work.pivot;
+        if (side >= 0) {
+            // Top-down elimination; back substitution runs from the top
+            pivot[1] = diag[1];
+            factor[1] = upper[1] / pivot[1];
+            for (int i = 2; i < m; i++) {
+                pivot[i] = diag[i] - lower[i] * factor[i - 1];
+                factor[i] = upper[i] / pivot[i];
+            }
+        } else {
+            // Bottom-up elimination; substitution runs from the bottom
+            pivot[m - 1] = diag[m - 1];
+            factor[m - 1] = lower[m - 1] / pivot[m - 1];
+            for (int i = m - 2; i >= 1; i--) {
+                pivot[i] = diag[i] - upper[i] * factor[i + 1];
+                factor[i] = lower[i] / pivot[i];
+            }
+        }
+    }
+
+    /**
+     * Advances the grid in work.values by one theta-scheme step ending at
+     * clock time t (t0 plus the time from t0), where the actual spot is the
+     * grid spot plus shift.
+     */
+    private static void step(Derivative deriv, Workspace work, int m, double h, double a, double b,
+                             double c, double theta, double dt, double t, double shift, int side) {
+        double[] values = work.values, spots = work.spots, obstacle = work.obstacle, rhs = work.rhs;
+        double explicit = (1 - theta) * dt;
+        for (int i = 1; i < m; i++) {
+            rhs[i] = values[i] + explicit * (a * values[i - 1] + b * values[i] + c * values[i + 1]);
+        }
+        // Off the exercise schedule the step is a plain tridiagonal solve
+        boolean exercisable = deriv.exercisable(t);
+        for (int i = 0; i <= m; i++) {
+            obstacle[i] = exercisable ? deriv.exercise(spots[i] + shift, Double.NEGATIVE_INFINITY, t)
+                                      : Double.NEGATIVE_INFINITY;
+        }
+
+        double[] lower = work.lower, upper = work.upper, factor = work.factor, pivot = work.pivot;
+        if (side >= 0 && (side > 0 || !exercisable)) {
+            // Thomas solve; for calls the max at each node is the Brennan-Schwartz
+            // projection, applied from the exercise side inwards
+            rhs[1] = rhs[1] / pivot[1];
+            for (int i = 2; i < m; i++) {
+                rhs[i] = (rhs[i] - lower[i] * rhs[i - 1]) / pivot[i];
+            }
+            values[m - 1] = Math.max(rhs[m - 1], obstacle[m - 1]);
+            for (int i = m - 2; i >= 1; i--) {
+                values[i] = Math.max(rhs[i] - factor[i] * values[i + 1], obstacle[i]);
+            }
+        } else if (side < 0) {
+            // Brennan-Schwartz for puts: eliminate upwards, project from the bottom
+            rhs[m - 1] = rhs[m - 1] / pivot[m - 1];
+            for (int i = m - 2; i >= 1; i--) {
+                rhs[i] = (rhs[i] - upper[i] * rhs[i + 1]) / pivot[i];
+            }
+            values[1] = Math.max(rhs[1], obstacle[1]);
+            for (int i = 2; i < m; i++) {
+                values[i] = Math.max(rhs[i] - factor[i] * values[i - 1], obstacle[i]);
+            }
+        } else {
+            projectedSor(work, m);
+        }
+
+        // Zero-gamma edges, then the exercise test on the edge nodes themselves
+        values[0] = Math.max((2 * values[1] - (1 - 0.5 * h) * values[2]) / (1 + 0.5 * h), obstacle[0]);
+        values[m] = Math.max((2 * values[m - 1] - (1 + 0.5 * h) * values[m - 2]) / (1 - 0.5 * h),
+                             obstacle[m]);
+    }
+
+    /**
+     * Projected SOR on the assembled system, warm-started from the previous
+     * time step, for payoffs whose exercise region is not known to lie on
+     * one side of the grid.
+     */
+    private static void projectedSor(Workspace work, int m) {
+        double[] values = work.values, obstacle = work.obstacle, rhs = work.rhs;
+        double[] lower = work.lower, diag = work.diag, upper = work.upper;
+        for (int i = 1; i < m; i++) {
+            values[i] = Math.max(values[i], obstacle[i]);
+        }
+        for (int iter = 0; iter < SOR_MAX_ITER; iter++) {
+            double change = 0;
+            for (int i = 1; i < m; i++) {
+                double below = i > 1 ? lower[i] * values[i - 1] : 0;
+                double above = i < m - 1 ? upper[i] * values[i + 1] : 0;
+                double gaussSeidel = (rhs[i] - below - above) / diag[i];
+                double next = Math.max(values[i] + SOR_OMEGA * (gaussSeidel - values[i]), obstacle[i]);
+                change = Math.max(change, Math.abs(next - values[i]));
+                values[i] = next;
+            }
+            if (change < SOR_TOL) return;
+        }
+    }
+}
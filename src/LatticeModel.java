@@ -0,0 +1,115 @@
+/**
+ * Parameterisation of one binomial step: the up and down factors and the
+ * risk-neutral up probability.
+ * 
+ * The drift is the cost of carry r - q. With cash dividends Library.binom
+ * passes the escrowed snapshot (MarketData.escrowed), so mkt.S is the
+ * spot the lattice is built from.
+ * 
+ * Library.binom builds its spot table from a symmetric ratio a = sqrt(u/d)
+ * and scales slice i by g^i with g = sqrt(u*d), so any choice of u and d
+ * recombines and still costs one multiply per node. CRR has g = 1.
+ * 
+ * Select a model per call through LatticeOptions.model.
+ */
+interface LatticeModel {
+
+    /**
+     * Computes the step parameters for an n-step lattice.
+     * 
+     * @param mkt Market data (spot, rate, volatility)
+     * @param strike Strike the lattice is centred on; the spot for payoffs without one
+     * @param T Time to maturity covered by the lattice
+     * @param n Number of time steps
+     * @return Step parameters
+     */
+    Step step(MarketData mkt, double strike, double T, int n);
+
+    /** Cox-Ross-Rubinstein: u = exp(sigma*sqrt(dt)), d = 1/u */
+    LatticeModel CRR = (mkt, strike, T, n) -> {
+        double dt = T / n;
+        double u = Math.exp(mkt.sigma * Math.sqrt(dt));
+        double d = 1.0 / u;
+        return Step.symmetric(u, (Math.exp((mkt.r - mkt.q) * dt) - d) / (u - d));
+    };
+
+    /** Jarrow-Rudd: log-spot drift in the factors, equal probabilities */
+    LatticeModel JARROW_RUDD = (mkt, strike, T, n) -> {
+        double dt = T / n;
+        double drift = (mkt.r - mkt.q - 0.5 * mkt.sigma * mkt.sigma) * dt;
+        double diffusion = mkt.sigma * Math.sqrt(dt);
+        return new Step(Math.exp(drift + diffusion), Math.exp(drift - diffusion), 0.5);
+    };
+
+    /** Tian: matches the first three moments of the lognormal step */
+    LatticeModel TIAN = (mkt, strike, T, n) -> {
+        double dt = T / n;
+        double growth = Math.exp((mkt.r - mkt.q) * dt);
+        double v = Math.exp(mkt.sigma * mkt.sigma * dt);
+        double root = Math.sqrt(v * v + 2 * v - 3);
+        double u = 0.5 * growth * v * (v + 1 + root);
+        double d = 0.5 * growth * v * (v + 1 - root);
+        return new Step(u, d, (growth - d) / (u - d));
+    };
+
+    /**
+     * Leisen-Reimer: probabilities from the Peizer-Pratt inversion of d1 and
+     * d2, so the terminal nodes straddle the strike. Second-order convergence
+     * for vanilla payoffs needs an odd n; even n is priced on the odd
+     * inversion of n + 1 and converges at first order.
+     */
+    LatticeModel LEISEN_REIMER = (mkt, strike, T, n) -> {
+        double dt = T / n;
+        int odd = (n % 2 == 1) ? n : n + 1;
+        double volRoot = mkt.sigma * Math.sqrt(T);
+        double d1 = (Math.log(mkt.S / strike) + (mkt.r - mkt.q + 0.5 * mkt.sigma * mkt.sigma) * T) / volRoot;
+        double d2 = d1 - volRoot;
+        double p = Step.peizerPratt(d2, odd);
+        double growth = Math.exp((mkt.r - mkt.q) * dt);
+        double u = growth * Step.peizerPratt(d1, odd) / p;
+        double d = (growth - p * u) / (1 - p);
+        return new Step(u, d, p);
+    };
+
+    /** Up/down factors and probability of one step, with the spot-table split */
+    final class Step {
+        public final double u;
+        public final double d;
+        public final double p;
+        /** Spot ratio between neighbouring nodes of a slice, squared: u/d = ratio^2 */
+        public final double ratio;
+        /** Per-slice spot growth: node (i, j) has spot S * ratio^(2j-i) * growth^i */
+        public final double growth;
+
+        Step(double u, double d, double p) {
+            this(u, d, p, Math.sqrt(u / d), Math.sqrt(u * d));
+            if (!(d > 0 && d < u) || !(p > 0 && p < 1)) {
+                throw new IllegalArgumentException(
+                    "Lattice step has no valid risk-neutral probability; use more steps");
+            }
+        }
+
+        private Step(double u, double d, double p, double ratio, double growth) {
+            this.u = u;
+            this.d = d;
+            this.p = p;
+            this.ratio = ratio;
+            this.growth = growth;
+        }
+
+        /**
+         * Recombining step with d = 1/u exactly, so the slices need no scaling.
+         * Left unchecked, as binom has always been for CRR.
+         */
+        static Step symmetric(double u, double p) {
+            return new Step(u, 1.0 / u, p, u, 1.0);
+        }
+
+        /** Peizer-Pratt method 2 inversion of the normal CDF onto a binomial */
+        static double peizerPratt(double z, int n) {
+            double x = z / (n + 1.0 / 3.0 + 0.1 / (n + 1));
+            double h = 0.5 * Math.sqrt(1 - Math.exp(-x * x * (n + 1.0 / 6.0)));
+            return z >= 0 ? 0.5 + h : 0.5 - h;
+        }
+    }
+}
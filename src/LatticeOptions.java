@@ -0,0 +1,102 @@
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Optional settings for the binomial lattice engine.
+ * 
+ * A default-constructed instance reproduces Library.binom(deriv, mkt, n)
+ * exactly; each field switches on one opt-in mode.
+ */
+final class LatticeOptions {
+    /** Default minimum slice width (in nodes) that is split across threads */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 2048;
+
+    /** Split wide time slices across a ForkJoinPool */
+    public boolean parallel;
+    /** Slices narrower than this are always rolled back serially */
+    public int parallelThreshold;
+    /** Pool used in parallel mode; the common pool unless set */
+    public ForkJoinPool pool;
+    /** Step parameterisation; LatticeModel.CRR unless set */
+    public LatticeModel model;
+    /** Extrapolate from n- and 2n-step lattices; CRR or Leisen-Reimer only (see Library.binom) */
+    public boolean richardson;
+    /** Use Black-Scholes values at the penultimate slice (see Library.binom) */
+    public boolean bbs;
+    /** Fill Output.exercise_boundary; the roll-back then runs serially */
+    public boolean exerciseBoundary;
+    /** Continuation loop of the serial roll-back; SliceKernel.SCALAR unless set */
+    public SliceKernel kernel;
+
+    /**
+     * Creates options for the plain serial engine.
+     */
+    public LatticeOptions() {
+        this.parallel = false;
+        this.parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+        this.pool = ForkJoinPool.commonPool();
+        this.model = LatticeModel.CRR;
+        this.richardson = false;
+        this.bbs = false;
+        this.exerciseBoundary = false;
+        this.kernel = SliceKernel.SCALAR;
+    }
+
+    /**
+     * Creates options for the parallel engine on the common pool.
+     * 
+     * @return Options with parallel mode switched on
+     */
+    public static LatticeOptions parallel() {
+        LatticeOptions options = new LatticeOptions();
+        options.parallel = true;
+        return options;
+    }
+
+    /**
+     * Creates options for the serial engine with another step parameterisation.
+     * 
+     * @param model Lattice model, e.g. LatticeModel.LEISEN_REIMER
+     * @return Options using that model
+     */
+    public static LatticeOptions model(LatticeModel model) {
+        LatticeOptions options = new LatticeOptions();
+        options.model = model;
+        return options;
+    }
+
+    /**
+     * Creates options for the serial engine on the Vector API kernel. Falls
+     * back to the scalar loop when the kernel is unavailable (see
+     * SliceKernel), with identical results either way.
+     * 
+     * @return Options using SliceKernel.VECTOR
+     */
+    public static LatticeOptions vector() {
+        LatticeOptions options = new LatticeOptions();
+        options.kernel = SliceKernel.VECTOR;
+        return options;
+    }
+
+    /**
+     * Creates options for Richardson-extrapolated pricing.
+     * 
+     * @return Options with Richardson mode switched on
+     */
+    public static LatticeOptions richardson() {
+        LatticeOptions options = new LatticeOptions();
+        options.richardson = true;
+        return options;
+    }
+
+    /**
+     * Creates options for Binomial Black-Scholes pricing with Richardson
+     * extrapolation (BBSR).
+     * 
+     * @return Options with BBS and Richardson modes switched on
+     */
+    public static LatticeOptions bbsr() {
+        LatticeOptions options = richardson();
+        options.bbs = true;
+        return options;
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Reusable scratch arrays for the binomial lattice engine.
+ * 
+ * Library.binom allocates a fresh workspace per call. Callers that price
+ * many contracts on one thread, such as PortfolioPricer, keep one per
+ * thread so that steady-state pricing allocates only the Output.
+ * A workspace must never be shared between threads.
+ */
+final class LatticeWorkspace {
+    /** Rolling backward-induction vector, at least n+1 long (2n+1 for trinomial, as is times) */
+    double[] values = new double[0];
+    /** Second vector for the parallel engine's double buffering */
+    double[] spare = new double[0];
+    /** Expected exercise times, rolled back alongside values */
+    double[] times = new double[0];
+    /** Second times vector for the parallel engine */
+    double[] spareTimes = new double[0];
+    /** Exercisable flag of each slice 0..n-1, decided before induction */
+    boolean[] schedule = new boolean[0];
+    /** Cash dividends still to be paid at each slice 0..n (see MarketData.escrowed) */
+    double[] escrow = new double[0];
+    /** Time of each slice 0..n, measured from t0 */
+    double[] sliceTimes = new double[0];
+    /** Spot scale of each slice 0..n: growth^i, or off the forward on curves */
+    double[] scales = new double[0];
+    /** Discount factor from slice i+1 back to slice i, i = 0..n-1 */
+    double[] discounts = new double[0];
+    /** Risk-neutral up probability from slice i, i = 0..n-1 */
+    double[] probabilities = new double[0];
+    /** Spot table S * u^k, at least 2n+1 long */
+    double[] spots = new double[0];
+    /** Slice 2 and slice 1 values kept for the Greeks */
+    final double[] early = new double[Library.EARLY_NODES];
+
+    /**
+     * Grows the arrays, if needed, to fit an n-step lattice.
+     * 
+     * @param n Number of time steps
+     * @param parallel Whether the spare vector is needed
+     */
+    void ensure(int n, boolean parallel) {
+        if (values.length < n + 1) {
+            values = new double[n + 1];
+            times = new double[n + 1];
+        }
+        if (parallel && spare.length < n + 1) {
+            spare = new double[n + 1];
+            spareTimes = new double[n + 1];
+        }
+        if (spots.length < 2 * n + 1) spots = new double[2 * n + 1];
+        if (schedule.length < n) schedule = new boolean[n];
+        if (escrow.length < n + 1) escrow = new double[n + 1];
+        if (sliceTimes.length < n + 1) {
+            sliceTimes = new double[n + 1];
+            scales = new double[n + 1];
+        }
+        if (discounts.length < n) {
+            discounts = new double[n];
+            probabilities = new double[n];
+        }
+    }
+
+    /**
+     * Grows the arrays, if needed, to fit an n-step trinomial lattice.
+     * 
+     * @param n Number of time steps
+     */
+    void ensureTrinomial(int n) {
+        if (values.length < 2 * n + 1) values = new double[2 * n + 1];
+        if (times.length < 2 * n + 1) times = new double[2 * n + 1];
+        if (spots.length < 2 * n + 1) spots = new double[2 * n + 1];
+        if (schedule.length < n) schedule = new boolean[n];
+        if (escrow.length < n + 1) escrow = new double[n + 1];
+    }
+}
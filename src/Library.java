@@ -1,3 +1,8 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
 /**
  * Core pricing library implementing the binomial model algorithms.
  * 
@@ -8,211 +13,1112 @@
  * - Risk-neutral pricing
  * - Backward induction for option valuation
  * - Support for early exercise features
- * - Implied volatility calculation using Newton's method
+ * - Closed-form Black-Scholes dispatch for European vanilla options
+ * - Stateless engines: instruments and market data are immutable and the
+ *   market context is passed explicitly, so concurrent calls need no locks
+ * - Implied volatility calculation using safeguarded Newton/Brent
  */
 final class Library {
+    /** Volatility search interval for impvol */
+    static final double IMPVOL_MIN = 1e-4;
+    static final double IMPVOL_MAX = 5.0;
+    /** Volatility resolution at which impvol stops bisecting */
+    private static final double IMPVOL_XTOL = 1e-10;
+    /** Volatility bump of the repricing that gives the tree vega of non-vanilla contracts */
+    private static final double VEGA_BUMP = 1e-3;
+    /** Volatility bump that differentiates the lattice parameters in vegaLattice */
+    private static final double PARAMETER_BUMP = 1e-7;
+    /** Settings used by the plain binom overload; never modified */
+    private static final LatticeOptions DEFAULT_OPTIONS = new LatticeOptions();
+    /** Values kept from slices 2 and 1 for the lattice Greeks */
+    static final int EARLY_NODES = 5;
+    /** Entries between exact Math.pow re-anchors in the spot table */
+    private static final int SPOT_ANCHOR_INTERVAL = 32;
+    
+    /**
+     * Prices a derivative with the cheapest engine that is exact for it.
+     * 
+     * European vanilla options (Derivative.hasClosedForm) go to the
+     * closed-form Black-Scholes engine, which also fills in the Greeks (on
+     * curves, theta from the rate and vol at t0; see BlackScholes); anything
+     * else, including subclasses that change the payoff or exercise rule,
+     * falls back to the binomial lattice.
+     * 
+     * @param deriv The derivative to price
+     * @param mkt Market data for calculation
+     * @param n Number of time steps if the lattice is used
+     * @return Output object containing pricing results
+     */
+    public static Output price(final Derivative deriv, final MarketData mkt, int n) {
+        return price(deriv, mkt, n, new LatticeWorkspace());
+    }
+
+    /** Engine dispatch on caller-owned lattice scratch arrays */
+    static Output price(final Derivative deriv, final MarketData mkt, int n, final LatticeWorkspace work) {
+        if (deriv instanceof VanillaOption && deriv.hasClosedForm()) {
+            return BlackScholes.price((VanillaOption) deriv, mkt);
+        }
+        return binom(deriv, mkt, n, DEFAULT_OPTIONS, work);
+    }
+
     /**
      * Calculates option price using the binomial model.
      * 
      * The method implements these steps:
-     * 1. Builds a binomial tree with n steps
-     * 2. Calculates up/down movements based on volatility
-     * 3. Computes risk-neutral probabilities
-     * 4. Performs backward induction for price calculation
+     * 1. Calculates up/down movements based on volatility
+     * 2. Computes risk-neutral probabilities
+     * 3. Evaluates the terminal payoff on the n+1 final nodes
+     * 4. Performs backward induction on a single rolling vector, so
+     *    memory use is O(n) rather than O(n^2)
+     * 
+     * Uses the default LatticeOptions: serial CRR with the scalar kernel.
+     * 
+     * @param deriv The derivative to price
+     * @param mkt Market data for calculation
+     * @param n Number of time steps
+     * @return Output object containing pricing results
+     */
+    public static Output binom(final Derivative deriv, final MarketData mkt, int n) {
+        return binom(deriv, mkt, n, DEFAULT_OPTIONS);
+    }
+
+    /**
+     * Calculates option price using the Boyle trinomial lattice.
+     * 
+     * Takes the same Derivative callbacks as binom and fills in the same
+     * Greeks. Prices converge without the odd/even oscillation of the
+     * binomial lattice; see TrinomialLattice. Term structures are replaced
+     * by their flat equivalent to maturity (MarketData.flat), which is exact
+     * only without early exercise; contracts that can exercise early on
+     * curves are rejected, and binom prices them.
+     * 
+     * @param deriv The derivative to price
+     * @param mkt Market data for calculation
+     * @param n Number of time steps
+     * @return Output object containing pricing results
+     * @throws IllegalArgumentException if mkt has curves and deriv is exercisable before maturity
+     */
+    public static Output trinom(final Derivative deriv, final MarketData mkt, int n) {
+        return trinom(deriv, mkt, n, new LatticeWorkspace());
+    }
+
+    /**
+     * Calculates option price with the Crank-Nicolson finite-difference engine.
+     * 
+     * Uses n time steps and 2n space steps across the spot grid, which
+     * balances the two error terms for typical contracts. See
+     * FiniteDifference for the scheme and the early-exercise solvers.
+     * Term structures are replaced by their flat equivalent to maturity,
+     * for European contracts only, as in trinom.
      * 
      * @param deriv The derivative to price
      * @param mkt Market data for calculation
      * @param n Number of time steps
      * @return Output object containing pricing results
      */
-    // public static Output binom(final Derivative deriv, final MarketData mkt, int n) {
-    //     if (n <= 0) throw new IllegalArgumentException("Number of steps must be positive");
+    public static Output pde(final Derivative deriv, final MarketData mkt, int n) {
+        return pde(deriv, mkt, n, 2 * n);
+    }
+
+    /**
+     * Calculates option price with the Crank-Nicolson finite-difference engine.
+     * 
+     * @param deriv The derivative to price
+     * @param mkt Market data for calculation
+     * @param timeSteps Number of time steps
+     * @param spaceSteps Number of log-spot steps across the grid
+     * @return Output object containing pricing results
+     * @throws IllegalArgumentException if mkt has curves and deriv is exercisable before maturity
+     */
+    public static Output pde(final Derivative deriv, final MarketData mkt, int timeSteps, int spaceSteps) {
+        if (timeSteps <= 0) throw new IllegalArgumentException("Number of steps must be positive");
+        if (spaceSteps < 4) throw new IllegalArgumentException("At least 4 space steps are required");
+        return FiniteDifference.price(deriv, flatEuropean(deriv, mkt, timeSteps), timeSteps, spaceSteps,
+                                      new FiniteDifference.Workspace());
+    }
+
+    /**
+     * Calculates option price by Longstaff-Schwartz Monte Carlo.
+     * 
+     * A cross-check on the lattice engines that scales with cores; see
+     * LongstaffSchwartz and MonteCarloOptions. The standard error of the
+     * estimate is returned in Output.std_error. Term structures are
+     * replaced by their flat equivalent to maturity, for European
+     * contracts only, as in trinom.
+     * 
+     * @param deriv The derivative to price
+     * @param mkt Market data for calculation
+     * @param options Paths, exercise dates, variance reduction and threading
+     * @return Output object containing pricing results
+     * @throws IllegalArgumentException if mkt has curves and deriv is exercisable before maturity
+     */
+    public static Output lsm(final Derivative deriv, final MarketData mkt, final MonteCarloOptions options) {
+        return LongstaffSchwartz.price(deriv, flatEuropean(deriv, mkt, options.steps), options);
+    }
+
+    /** Trinomial pricing on caller-owned scratch arrays */
+    static Output trinom(final Derivative deriv, final MarketData mkt, int n, final LatticeWorkspace work) {
+        if (n <= 0) throw new IllegalArgumentException("Number of steps must be positive");
+        return TrinomialLattice.price(deriv, flatEuropean(deriv, mkt, n), n, work);
+    }
+
+    /**
+     * MarketData.flat to maturity for the engines without per-slice curves.
+     * Flat rate and vol with the same discount factor and total variance
+     * give the same terminal distribution, so European payoffs are exact,
+     * but the exercise boundary depends on the path of the curves. On
+     * curves, every slice time of an n-step grid is therefore checked.
+     */
+    private static MarketData flatEuropean(final Derivative deriv, final MarketData mkt, int n) {
+        if (!mkt.hasTermStructure()) return mkt;
+        double T = deriv.getMaturity() - mkt.t0;
+        for (int i = 0; i < n; i++) {
+            if (deriv.exercisable(mkt.t0 + sliceTime(T, n, i))) {
+                throw new IllegalArgumentException(
+                    "Early exercise on a discount or vol curve needs the binomial lattice; use binom");
+            }
+        }
+        return mkt.flat(T);
+    }
+
+    /**
+     * Calculates option price using the binomial model with optional modes.
+     * 
+     * In parallel mode, slices at least options.parallelThreshold nodes wide
+     * are rolled back by ParallelLattice on options.pool, in blocks of
+     * ParallelLattice.BLOCK_STEPS slices. The narrow top of the lattice, and
+     * with it the Greeks, always runs serially. Prices are identical to the
+     * serial engine.
+     * 
+     * In Richardson mode the price is extrapolated from lattices of n, n+1,
+     * 2n and 2n+1 steps, which removes the odd/even oscillation and the
+     * leading 1/n error of CRR. Leisen-Reimer is extrapolated from odd n and
+     * 2n+1 steps at second order; other models throw
+     * IllegalArgumentException.
+     * 
+     * In BBS mode vanilla options replace the last time step with
+     * Black-Scholes values at slice n-1, so the payoff kink never enters
+     * the induction. Other payoffs use the ordinary terminal slice.
+     * 
+     * options.model picks the step parameterisation (CRR, Jarrow-Rudd, Tian
+     * or Leisen-Reimer). Leisen-Reimer with odd n converges at second order
+     * for vanilla payoffs.
+     * 
+     * Output.fugit is the risk-neutral expected exercise time, rolled back
+     * in the same pass as the price. With options.exerciseBoundary the
+     * critical spot of every slice is returned in Output.exercise_boundary.
+     * 
+     * Dividends in mkt are priced in the same pass: the yield enters the
+     * drift, and cash dividends shift each slice's spots by the escrow still
+     * to be paid (MarketData.escrowed), so memory stays O(n).
+     * 
+     * Discount and vol curves in mkt are resolved to per-slice discount
+     * factors and probabilities before induction (fillSlices), so the inner
+     * loop never interpolates. With a vol curve the slices are spaced at
+     * equal steps of total variance, which keeps u constant and the lattice
+     * recombining.
+     * 
+     * @param deriv The derivative to price
+     * @param mkt Market data for calculation
+     * @param n Number of time steps
+     * @param options Engine modes
+     * @return Output object containing pricing results
+     */
+    public static Output binom(final Derivative deriv, final MarketData mkt, int n,
+                               final LatticeOptions options) {
+        return binom(deriv, mkt, n, options, new LatticeWorkspace());
+    }
+
+    /**
+     * Lattice pricing on caller-owned scratch arrays, for callers that keep
+     * one workspace per thread.
+     */
+    static Output binom(final Derivative deriv, final MarketData mkt, int n,
+                        final LatticeOptions options, final LatticeWorkspace work) {
+        if (n <= 0) throw new IllegalArgumentException("Number of steps must be positive");
+        if (options.richardson) return richardson(deriv, mkt, n, options, work);
+        return lattice(deriv, mkt, n, options, work);
+    }
+    
+    /**
+     * Richardson extrapolation over CRR or Leisen-Reimer lattices.
+     * 
+     * CRR prices oscillate between odd and even step counts, so each level
+     * first averages the n and n+1 step prices. The averaged error then
+     * decays like 1/n, and 2 * P(2n) - P(n) cancels that leading term. The
+     * Greeks are extrapolated the same way. Four lattices of n to 2n+1
+     * steps cost about 5n^2 node updates, a fraction of one 2,000-step tree
+     * when n is a few hundred.
+     * 
+     * BBS lattices converge smoothly and monotonically, so with BBS on
+     * (BBSR) the odd/even averaging is skipped and only n and 2n are priced.
+     * 
+     * Leisen-Reimer converges like 1/n^2 on odd step counts, so it goes to
+     * leisenReimerRichardson. Jarrow-Rudd, Tian and other models have no
+     * error expansion this extrapolation is valid for and are rejected, as
+     * is BBS on Leisen-Reimer.
+     * 
+     * When the coarse lattice is too short to give Greeks (greekSteps), the
+     * fine lattice's Greeks are returned as they are.
+     */
+    private static Output richardson(final Derivative deriv, final MarketData mkt, int n,
+                                     final LatticeOptions options, final LatticeWorkspace work) {
+        if (options.model == LatticeModel.LEISEN_REIMER && !options.bbs) {
+            return leisenReimerRichardson(deriv, mkt, n, options, work);
+        }
+        if (options.model != LatticeModel.CRR) {
+            throw new IllegalArgumentException(
+                "Richardson extrapolation needs the CRR model, or Leisen-Reimer without BBS");
+        }
+        Output coarse = lattice(deriv, mkt, n, options, work);
+        Output fine = lattice(deriv, mkt, 2 * n, options, work);
+        if (!usesBlackScholesSlice(deriv, options)) {
+            average(coarse, lattice(deriv, mkt, n + 1, options, work));
+            average(fine, lattice(deriv, mkt, 2 * n + 1, options, work));
+        }
         
-    //     deriv.setMarketData(mkt);
-    //     Output output = new Output();
+        fine.FV = 2 * fine.FV - coarse.FV;
+        if (n >= greekSteps(deriv, options)) {
+            fine.delta = 2 * fine.delta - coarse.delta;
+            fine.gamma = 2 * fine.gamma - coarse.gamma;
+            fine.theta = 2 * fine.theta - coarse.theta;
+        }
+        return fine;
+    }
+    
+    /**
+     * Richardson extrapolation for Leisen-Reimer, whose error on odd step
+     * counts decays like c / n^2. The coarse lattice has n1 steps, n rounded
+     * up to odd, and the fine one n2 = 2 * n1 + 1. The combination
+     * (n2^2 P(n2) - n1^2 P(n1)) / (n2^2 - n1^2) cancels the c / n^2 term
+     * for any ratio of the two, and the Greeks are extrapolated the same
+     * way.
+     */
+    private static Output leisenReimerRichardson(final Derivative deriv, final MarketData mkt, int n,
+                                                 final LatticeOptions options, final LatticeWorkspace work) {
+        int n1 = n | 1, n2 = 2 * n1 + 1;
+        Output coarse = lattice(deriv, mkt, n1, options, work);
+        Output fine = lattice(deriv, mkt, n2, options, work);
+        double w2 = (double) n2 * n2, w1 = (double) n1 * n1, scale = w2 - w1;
+        fine.FV = (w2 * fine.FV - w1 * coarse.FV) / scale;
+        if (n1 >= greekSteps(deriv, options)) {
+            fine.delta = (w2 * fine.delta - w1 * coarse.delta) / scale;
+            fine.gamma = (w2 * fine.gamma - w1 * coarse.gamma) / scale;
+            fine.theta = (w2 * fine.theta - w1 * coarse.theta) / scale;
+        }
+        return fine;
+    }
+    
+    /**
+     * Fewest steps whose lattice yields Greeks: slices 1 and 2 must both be
+     * rolled back, and BBS seeds slice n-1 instead of inducing it.
+     */
+    private static int greekSteps(Derivative deriv, LatticeOptions options) {
+        return usesBlackScholesSlice(deriv, options) ? 3 : 2;
+    }
+    
+    /** The strike a strike-centred model (Leisen-Reimer) aligns the lattice to */
+    private static double latticeStrike(Derivative deriv, MarketData mkt) {
+        return deriv instanceof VanillaOption ? ((VanillaOption) deriv).getStrike() : mkt.S;
+    }
+    
+    /**
+     * Whether BBS applies: the option is on and the payoff is a vanilla call
+     * or put, the only payoffs with a closed-form value at the last slice.
+     */
+    private static boolean usesBlackScholesSlice(Derivative deriv, LatticeOptions options) {
+        return options.bbs && VanillaOption.isVanilla(deriv);
+    }
+    
+    /** Replaces the price and Greeks in a with the mean of a and b */
+    private static void average(Output a, Output b) {
+        a.FV = 0.5 * (a.FV + b.FV);
+        a.delta = 0.5 * (a.delta + b.delta);
+        a.gamma = 0.5 * (a.gamma + b.gamma);
+        a.theta = 0.5 * (a.theta + b.theta);
+    }
+    
+    /** One backward induction over an n-step lattice */
+    private static Output lattice(final Derivative deriv, final MarketData mkt, int n,
+                                  final LatticeOptions options, final LatticeWorkspace work) {
+        Output output = new Output();
         
-    //     // Calculate parameters
-    //     double dt = (deriv.getMaturity() - mkt.t0) / n;
-    //     double u = Math.exp(mkt.sigma * Math.sqrt(dt));
-    //     double d = 1.0 / u;
-    //     double p = (Math.exp(mkt.r * dt) - d) / (u - d);
+        // Calculate parameters; with cash dividends the lattice models the
+        // escrowed spot and escrow[i] adds the dividends back at slice i
+        double T = deriv.getMaturity() - mkt.t0;
+        double dt = T / n;
+        MarketData process = mkt.escrowed(T);
+        LatticeModel.Step step = options.model.step(process.flat(T), latticeStrike(deriv, mkt), T, n);
         
-    //     // Build and evaluate tree
-    //     Node root = buildTree(mkt.S, n, u, d);
-    //     calculateOptionValues(root, deriv, p, mkt.r, dt, n);
+        // Single backward-induction vector: slice i lives in values[0..i] and is
+        // overwritten in place by slice i-1, so memory is O(n) instead of O(n^2)
+        work.ensure(n, options.parallel);
+        double[] values = work.values;
+        // Expected exercise time from each node, rolled back alongside values
+        double[] times = work.times;
+        // Node (i, j) has spot S * ratio^(2j - i) * scales[i]; the table holds
+        // the first factor for every slice (scales[i] is growth^i, exactly 1 for CRR)
+        double[] spots = work.spots;
+        fillSpotTable(spots, process.S, step.ratio, 1.0 / step.ratio, n);
+        // Slice times, scales, discount factors and probabilities, flat or off the curves
+        double[] sliceTimes = work.sliceTimes;
+        double[] scales = work.scales;
+        double[] discounts = work.discounts;
+        double[] probabilities = work.probabilities;
+        fillSlices(sliceTimes, scales, discounts, probabilities, mkt, step, T, n);
+        double[] escrow = work.escrow;
+        fillEscrow(escrow, mkt, sliceTimes, T, n);
+        // Exercise dates are resolved to slices once, not tested at every node
+        boolean[] schedule = work.schedule;
+        fillExerciseSchedule(schedule, 0, deriv, mkt.t0, sliceTimes, n);
         
-    //     output.FV = root.optionValue;
-    //     output.fugit = calculateFugit(root, deriv, n);
+        // Slice 2 and slice 1 values, kept for the Greeks
+        double[] early = work.early;
         
-    //     return output;
-    // }
-
-    // private static Node buildTree(double S0, int steps, double u, double d) {
-    //     Node root = new Node(S0, 0);
-    //     buildTreeRecursive(root, steps, u, d, 0);
-    //     return root;
-    // }
-    
-    // private static void buildTreeRecursive(Node node, int steps, double u, double d, int currentStep) {
-    //     if (currentStep == steps) return;
-        
-    //     node.upNode = new Node(node.stockPrice * u, currentStep + 1);
-    //     node.downNode = new Node(node.stockPrice * d, currentStep + 1);
-        
-    //     buildTreeRecursive(node.upNode, steps, u, d, currentStep + 1);
-    //     buildTreeRecursive(node.downNode, steps, u, d, currentStep + 1);
-    // }
-    
-    // private static void calculateOptionValues(Node node, Derivative deriv, 
-    //                                        double p, double r, double dt, int steps) {
-    //     if (node.timeStep == steps) {
-    //         deriv.terminalCondition(node);
-    //         return;
-    //     }
-        
-    //     calculateOptionValues(node.upNode, deriv, p, r, dt, steps);
-    //     calculateOptionValues(node.downNode, deriv, p, r, dt, steps);
-        
-    //     // Backward induction
-    //     double currentTime = node.timeStep * dt;
-    //     node.optionValue = Math.exp(-r * dt) * 
-    //         (p * node.upNode.optionValue + (1-p) * node.downNode.optionValue);
-        
-    //     deriv.valuationTest(node, currentTime);
-    // }
-    
-    // private static double calculateFugit(Node root, Derivative deriv, int steps) {
-    //     // Simplified fugit calculation
-    //     return deriv.getMaturity();
-    // }
-    
-    // /**
-    //  * Calculates implied volatility using Newton's method.
-    //  * 
-    //  * This method finds the volatility that makes the model price
-    //  * match the market price within the specified tolerance.
-    //  * 
-    //  * @param deriv The derivative instrument
-    //  * @param mkt Market data
-    //  * @param n Number of time steps
-    //  * @param max_iter Maximum number of iterations
-    //  * @param tol Convergence tolerance
-    //  * @param out Output object for results
-    //  * @return Updated output object with implied volatility
-    //  */
-    // public static Output impvol(final Derivative deriv, final MarketData mkt,
-    //                           int n, int max_iter, double tol, Output out) {
-    //     // Implementation of implied volatility calculation using Newton's method
-    //     Output result = new Output();
-    //     double vol = 0.3; // Initial guess
-        
-    //     for (int i = 0; i < max_iter; i++) {
-    //         MarketData tempMkt = new MarketData(mkt.Price, mkt.S, mkt.r, vol, mkt.t0);
-    //         Output tempOut = binom(deriv, tempMkt, n);
-            
-    //         double diff = tempOut.FV - mkt.Price;
-    //         if (Math.abs(diff) < tol) {
-    //             result.impvol = vol;
-    //             result.num_iter = i + 1;
-    //             break;
-    //         }
-            
-    //         // Update volatility using Newton's method
-    //         vol = vol - diff * 0.1; // Simplified adjustment
-    //     }
-        
-    //     return result;
-    // }
-
-    public static Output binom(final Derivative deriv, final MarketData mkt, int n) {
+        int top = n;
+        boolean tracking = false;
+        if (usesBlackScholesSlice(deriv, options)) {
+            // BBS: the last step is replaced by the exact one-period Black-Scholes
+            // value, which smooths out the payoff kink before induction starts
+            VanillaOption option = (VanillaOption) deriv;
+            top = n - 1;
+            double t = sliceTimes[top];
+            double clock = mkt.t0 + t;
+            double scale = scales[top];
+            // The last slice on its own flat rate and vol; the snapshot's with no curves
+            double last = mkt.hasTermStructure() ? T - t : dt;
+            double rate = mkt.hasTermStructure() ? -Math.log(discounts[top]) / last : mkt.r;
+            double vol = mkt.hasTermStructure() ? Math.sqrt((mkt.variance(T) - mkt.variance(t)) / last)
+                                                : mkt.sigma;
+            double carry = Math.exp(-mkt.q * last);
+            for (int j = 0, k = 1; j <= top; j++, k += 2) {
+                double spot = scale * spots[k];
+                double european = BlackScholes.price(spot * carry, option.getStrike(), rate,
+                                                     vol, last, option.isCall());
+                values[j] = schedule[top] ? deriv.exercise(spot + escrow[top], european, clock) : european;
+                times[j] = values[j] > european ? clock : deriv.getMaturity();
+                tracking |= values[j] > european;
+            }
+        } else {
+            // Initialize terminal conditions
+            double scale = scales[n];
+            for (int j = 0; j <= n; j++) {
+                values[j] = deriv.terminal(scale * spots[2 * j]);
+                times[j] = deriv.getMaturity();
+            }
+        }
+        captureEarlySlice(values, 0, top, early, 0);
+        double[] boundary = null;
+        if (options.exerciseBoundary) {
+            boundary = new double[n + 1];
+            Arrays.fill(boundary, Double.NaN);
+            if (top < n) recordBoundary(times, spots, scales[top], escrow[top], n, top,
+                                        mkt.t0 + sliceTimes[top], boundary);
+        }
+        
+        // Backward induction; the primitive callbacks keep the loop allocation-free
+        int side = deriv.exerciseSide();
+        if (options.parallel && boundary == null) {
+            // Blocks keep every parallel slice at least minWidth nodes wide
+            int minWidth = Math.max(options.parallelThreshold, 2 * ParallelLattice.BLOCK_STEPS);
+            double[] spare = work.spare;
+            double[] spareTimes = work.spareTimes;
+            while (top + 1 - ParallelLattice.BLOCK_STEPS >= minWidth) {
+                ParallelLattice.rollBackBlock(deriv, schedule, values, spare, times, spareTimes, spots,
+                                              escrow, mkt.t0, sliceTimes, scales, probabilities, discounts, n,
+                                              top, options.pool);
+                double[] swap = values;
+                values = spare;
+                spare = swap;
+                swap = times;
+                times = spareTimes;
+                spareTimes = swap;
+                top -= ParallelLattice.BLOCK_STEPS;
+                tracking = true;
+            }
+        }
+        for (int i = top - 1; i >= 0; i--) {
+            double scale = scales[i];
+            double t = mkt.t0 + sliceTimes[i];
+            tracking = stepBack(deriv, side, schedule[i], options.kernel, values, times, tracking, 0,
+                                spots, scale, escrow[i], n, i, probabilities[i], discounts[i], t);
+            captureEarlySlice(values, 0, i, early, 0);
+            if (boundary != null) recordBoundary(times, spots, scale, escrow[i], n, i, t, boundary);
+        }
+        
+        output.FV = values[0];
+        output.fugit = calculateFugit(times, 0);
+        output.exercise_boundary = boundary;
+        if (n >= greekSteps(deriv, options)) {
+            setLatticeGreeks(output, early, 0, spots, scales, escrow[2] - escrow[0], n, sliceTimes[2]);
+        }
+        
+        return output;
+    }
+    
+    /**
+     * Prices several derivatives on one shared lattice.
+     * 
+     * The spot table and lattice parameters depend only on the market data
+     * and the maturity, so they are built once. The option values are kept
+     * in structure-of-arrays form: one flat array with a contiguous row of
+     * n+1 values per instrument, and every slice is rolled back for all
+     * instruments before moving to the next.
+     * 
+     * @param derivs The derivatives to price; all must share one maturity
+     * @param mkt Market data for calculation
+     * @param n Number of time steps
+     * @return One Output per derivative, in input order
+     */
+    public static List<Output> binomBatch(final List<? extends Derivative> derivs,
+                                          final MarketData mkt, int n) {
         if (n <= 0) throw new IllegalArgumentException("Number of steps must be positive");
+        if (derivs.isEmpty()) throw new IllegalArgumentException("Batch must not be empty");
         
-        deriv.setMarketData(mkt);
-        Output output = new Output();
+        int m = derivs.size();
+        double maturity = derivs.get(0).getMaturity();
+        for (Derivative deriv : derivs) {
+            if (deriv.getMaturity() != maturity)
+                throw new IllegalArgumentException("All derivatives in a batch must share one maturity");
+        }
         
-        // Calculate parameters
-        double dt = (deriv.getMaturity() - mkt.t0) / n;
-        double u = Math.exp(mkt.sigma * Math.sqrt(dt));
-        double d = 1.0 / u;
-        double p = (Math.exp(mkt.r * dt) - d) / (u - d);
+        double T = maturity - mkt.t0;
+        MarketData process = mkt.escrowed(T);
+        LatticeModel.Step step = LatticeModel.CRR.step(process.flat(T), process.S, T, n);
+        double[] spots = spotTable(process.S, step.u, step.d, n);
+        double[] sliceTimes = new double[n + 1];
+        double[] scales = new double[n + 1];
+        double[] discounts = new double[n];
+        double[] probabilities = new double[n];
+        fillSlices(sliceTimes, scales, discounts, probabilities, mkt, step, T, n);
+        double[] escrow = new double[n + 1];
+        fillEscrow(escrow, mkt, sliceTimes, T, n);
         
-        // Create arrays to store values instead of tree nodes
-        double[][] stockPrices = new double[n + 1][n + 1];
-        double[][] optionValues = new double[n + 1][n + 1];
+        int stride = n + 1;
+        double[] values = new double[m * stride];
+        double[] times = new double[m * stride];
+        double[] early = new double[m * EARLY_NODES];
+        Arrays.fill(times, maturity);
+        for (int k = 0; k < m; k++) {
+            Derivative deriv = derivs.get(k);
+            for (int j = 0; j <= n; j++) {
+                values[k * stride + j] = deriv.terminal(scales[n] * spots[2 * j]);
+            }
+            captureEarlySlice(values, k * stride, n, early, k * EARLY_NODES);
+        }
         
-        // Build stock price array
+        boolean[] tracking = new boolean[m];
+        int[] sides = new int[m];
+        boolean[] schedules = new boolean[m * n];
+        for (int k = 0; k < m; k++) {
+            sides[k] = derivs.get(k).exerciseSide();
+            fillExerciseSchedule(schedules, k * n, derivs.get(k), mkt.t0, sliceTimes, n);
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double t = mkt.t0 + sliceTimes[i];
+            for (int k = 0; k < m; k++) {
+                tracking[k] = stepBack(derivs.get(k), sides[k], schedules[k * n + i], SliceKernel.SCALAR,
+                                       values, times, tracking[k], k * stride, spots, scales[i], escrow[i],
+                                       n, i, probabilities[i], discounts[i], t);
+                captureEarlySlice(values, k * stride, i, early, k * EARLY_NODES);
+            }
+        }
+        
+        List<Output> outputs = new ArrayList<>(m);
+        for (int k = 0; k < m; k++) {
+            Output output = new Output();
+            output.FV = values[k * stride];
+            output.fugit = calculateFugit(times, k * stride);
+            setLatticeGreeks(output, early, k * EARLY_NODES, spots, scales, n > 1 ? escrow[2] - escrow[0] : 0,
+                             n, n > 1 ? sliceTimes[2] : 0);
+            outputs.add(output);
+        }
+        return outputs;
+    }
+    
+    /**
+     * Rolls one instrument's value row back from slice i+1 to slice i.
+     * Ascending j is safe in place because values[j + 1] still holds the
+     * slice i+1 value when values[j] is updated.
+     * 
+     * Exercise times are only rolled back once tracking is on; before the
+     * first exercise they are all still maturity. Returns whether tracking
+     * is on after this slice.
+     * 
+     * Slices off the exercise schedule never reach the callback. Contracts
+     * with a one-sided exercise region skip it in the continuation region:
+     * the kernel rolls the slice back as pure continuation, then exerciseScan
+     * tests nodes from the exercise edge inwards and stops at the first
+     * node that is not exercised. Vanilla contracts under a vector kernel
+     * take its fused exercise pass instead: testing every node in lanes
+     * beats stopping early one node at a time.
+     */
+    private static boolean stepBack(Derivative deriv, int side, boolean exercisable, SliceKernel kernel,
+                                    double[] values, double[] times, boolean tracking, int offset,
+                                    double[] spots, double scale, double shift, int n, int i, double p,
+                                    double discountFactor, double t) {
+        if (exercisable && kernel != SliceKernel.SCALAR && VanillaOption.isVanilla(deriv)) {
+            VanillaOption option = (VanillaOption) deriv;
+            return kernel.rollBackExercise(values, times, tracking, offset, i, p, discountFactor, spots,
+                                           n - i, scale, shift, option.getStrike(), option.isCall(), t)
+                || tracking;
+        }
+        if (!exercisable || side != Derivative.EXERCISE_ANYWHERE) {
+            if (tracking) {
+                kernel.rollBack(values, times, offset, i, p, discountFactor);
+            } else {
+                kernel.rollBack(values, offset, i, p, discountFactor);
+            }
+            if (!exercisable) return tracking;
+            return exerciseScan(deriv, side, values, times, offset, spots, scale, shift, n, i, t) || tracking;
+        }
+        if (tracking) {
+            stepBackTracked(deriv, values, times, offset, spots, scale, shift, n, i, p, discountFactor, t);
+            return true;
+        }
+        // Until the first exercise every node's expected exercise time is
+        // still maturity, so only exercised nodes need a write
+        boolean exercised = false;
+        for (int j = offset, end = offset + i, k = n - i; j <= end; j++, k += 2) {
+            double continuation = discountFactor * (p * values[j + 1] + 
+                                                 (1 - p) * values[j]);
+            double value = deriv.exercise(scale * spots[k] + shift, continuation, t);
+            if (value > continuation) {
+                times[j] = t;
+                exercised = true;
+            }
+            values[j] = value;
+        }
+        return exercised;
+    }
+    
+    /**
+     * Applies the exercise test to a slice that already holds continuation
+     * values, walking in from the exercise edge (node 0 for EXERCISE_BELOW,
+     * node i for EXERCISE_ABOVE) until a node is not exercised. Exercised
+     * nodes get exercise time t. Returns whether any node was exercised.
+     */
+    private static boolean exerciseScan(Derivative deriv, int side, double[] values, double[] times,
+                                        int offset, double[] spots, double scale, double shift, int n,
+                                        int i, double t) {
+        int j = side == Derivative.EXERCISE_BELOW ? 0 : i;
+        int k = n - i + 2 * j;
+        boolean exercised = false;
+        while (j >= 0 && j <= i) {
+            double continuation = values[offset + j];
+            double value = deriv.exercise(scale * spots[k] + shift, continuation, t);
+            if (!(value > continuation)) break;
+            values[offset + j] = value;
+            times[offset + j] = t;
+            exercised = true;
+            j -= side;
+            k -= 2 * side;
+        }
+        return exercised;
+    }
+    
+    /** stepBack once some node has been exercised: rolls the exercise times back too */
+    private static void stepBackTracked(Derivative deriv, double[] values, double[] times, int offset,
+                                        double[] spots, double scale, double shift, int n, int i,
+                                        double p, double discountFactor, double t) {
+        double q = 1 - p;
+        for (int j = offset, end = offset + i, k = n - i; j <= end; j++, k += 2) {
+            double continuation = discountFactor * (p * values[j + 1] + 
+                                                 (1 - p) * values[j]);
+            double value = deriv.exercise(scale * spots[k] + shift, continuation, t);
+            // Exercised nodes stop the clock at t; the rest inherit the
+            // risk-neutral mean of their children's exercise times
+            double time = p * times[j + 1] + q * times[j];
+            times[j] = value > continuation ? t : time;
+            values[j] = value;
+        }
+    }
+    
+    /**
+     * Records the critical spot of slice i, read off the exercise times:
+     * a node was exercised exactly when its expected exercise time is t.
+     * When the bottom node is exercised (put-like) the boundary is the top
+     * of that run; otherwise (call-like) it is the lowest exercised node.
+     * Slices with no exercise are left at NaN.
+     */
+    private static void recordBoundary(double[] times, double[] spots, double scale, double shift,
+                                       int n, int i, double t, double[] boundary) {
+        int j = 0;
+        if (times[0] == t) {
+            while (j < i && times[j + 1] == t) j++;
+        } else {
+            while (j <= i && times[j] != t) j++;
+            if (j > i) return;
+        }
+        boundary[i] = scale * spots[n - i + 2 * j] + shift;
+    }
+    
+    /**
+     * Copies slice 2 (three nodes) or slice 1 (two nodes) out of a value row
+     * before the next step overwrites it. Stored as v20, v21, v22, v10, v11.
+     */
+    private static void captureEarlySlice(double[] values, int offset, int i,
+                                          double[] early, int earlyOffset) {
+        if (i == 2) {
+            System.arraycopy(values, offset, early, earlyOffset, 3);
+        } else if (i == 1) {
+            System.arraycopy(values, offset, early, earlyOffset + 3, 2);
+        }
+    }
+    
+    /**
+     * Reads delta, gamma and theta off the first two slices of the lattice
+     * the price came from, so the Greeks cost no extra tree evaluations.
+     * Theta compares the middle node at step 2 with the root. That node has
+     * the root spot under CRR; drifting models move it to S * scales[2], and
+     * its value is shifted back to S along the slice-2 delta, as is the
+     * change in escrowed cash dividends between the root and step 2
+     * (escrowShift). All three need slices 1 and 2 induced (n >= 2, or
+     * n >= 3 with BBS) and are left at zero otherwise; t2 is the time of
+     * slice 2.
+     */
+    private static void setLatticeGreeks(Output output, double[] early, int offset, double[] spots,
+                                         double[] scales, double escrowShift, int n, double t2) {
+        if (n < 2) return;
+        double v20 = early[offset], v21 = early[offset + 1], v22 = early[offset + 2];
+        double v10 = early[offset + 3], v11 = early[offset + 4];
+        double g2 = scales[2];
+        double s20 = g2 * spots[n - 2], s21 = g2 * spots[n], s22 = g2 * spots[n + 2];
+        output.delta = (v11 - v10) / (scales[1] * (spots[n + 1] - spots[n - 1]));
+        output.gamma = ((v22 - v21) / (s22 - s21) - (v21 - v20) / (s21 - s20)) / (0.5 * (s22 - s20));
+        double atRoot = v21 - (v22 - v20) / (s22 - s20) * (s21 + escrowShift - spots[n]);
+        output.theta = (atRoot - output.FV) / t2;
+    }
+    
+    /**
+     * Builds the table of lattice spot prices S * u^k for k = -n..n, stored at
+     * index k + n. Entries are generated by repeated multiplication, which
+     * replaces two Math.pow calls per node with one multiply per entry.
+     * The recurrence is re-anchored to an exact power every
+     * SPOT_ANCHOR_INTERVAL entries so rounding cannot drift with n.
+     */
+    static double[] spotTable(double S, double u, double d, int n) {
+        double[] spots = new double[2 * n + 1];
+        fillSpotTable(spots, S, u, d, n);
+        return spots;
+    }
+    
+    /**
+     * Time of slice i of an n-step lattice over T, measured from t0.
+     * Dividing last means round exercise dates such as 0.25 or 0.5 land on
+     * their slice exactly whenever T * i is exact; the running product
+     * i * dt can miss them by an ulp and move a window edge by a step.
+     */
+    static double sliceTime(double T, int n, int i) {
+        return T * i / n;
+    }
+    
+    /**
+     * Resolves the market to the slices of an n-step binomial lattice:
+     * sliceTimes[0..n], the spot scale scales[0..n] of each slice, and for
+     * each step i the discount factor discounts[i] from slice i+1 back to
+     * slice i and the up probability probabilities[i].
+     * 
+     * Without term structure every step is the same: slices at sliceTime,
+     * scales growth^i, exp(-r dt) and the model's p. A discount curve alone
+     * keeps the sliceTime slices. With a vol curve the slices are placed at
+     * equal steps of total variance, so the model's u fits every step.
+     * Each probability then matches the step's forward growth,
+     * e^{-q dt_i} D(t_i) / D(t_{i+1}), on the model's up and down factors.
+     * 
+     * A step whose forward growth lies outside those factors, such as a
+     * long slice across a stretch of the vol curve with little or no
+     * forward variance, is centred on its forward instead: the slice's
+     * scale grows by the forward, and p = 1 / (1 + ratio). The lattice
+     * still recombines because the shift is the same for every node.
+     */
+    static void fillSlices(double[] sliceTimes, double[] scales, double[] discounts, double[] probabilities,
+                           MarketData mkt, LatticeModel.Step step, double T, int n) {
+        if (!mkt.hasTermStructure()) {
+            double discountFactor = Math.exp(-mkt.r * (T / n));
+            for (int i = 0; i <= n; i++) {
+                sliceTimes[i] = sliceTime(T, n, i);
+                scales[i] = Math.pow(step.growth, i);
+            }
+            Arrays.fill(discounts, 0, n, discountFactor);
+            Arrays.fill(probabilities, 0, n, step.p);
+            return;
+        }
+        if (mkt.hasVolCurve()) {
+            double variance = mkt.variance(T);
+            for (int i = 0; i < n; i++) sliceTimes[i] = mkt.varianceTime(variance * i / n);
+            sliceTimes[n] = T;
+        } else {
+            // A flat vol keeps the uniform slices, and with them exact exercise dates
+            for (int i = 0; i <= n; i++) sliceTimes[i] = sliceTime(T, n, i);
+        }
+        double from = 1.0;
+        scales[0] = 1.0;
+        for (int i = 0; i < n; i++) {
+            double to = mkt.discount(sliceTimes[i + 1]);
+            double forward = Math.exp(-mkt.q * (sliceTimes[i + 1] - sliceTimes[i])) * from / to;
+            double p = (forward - step.d) / (step.u - step.d);
+            if (p > 0 && p < 1) {
+                scales[i + 1] = scales[i] * step.growth;
+            } else {
+                scales[i + 1] = scales[i] * forward;
+                p = 1 / (1 + step.ratio);
+            }
+            discounts[i] = to / from;
+            probabilities[i] = p;
+            from = to;
+        }
+    }
+    
+    /**
+     * Marks which of slices 0..n-1 allow early exercise, at
+     * schedule[offset + i], so induction never has to test a date per node.
+     * Slice times are measured from t0; the derivative is asked on its own
+     * clock, at t0 + slice time.
+     */
+    static void fillExerciseSchedule(boolean[] schedule, int offset, Derivative deriv, double t0, double T,
+                                     int n) {
+        for (int i = 0; i < n; i++) {
+            schedule[offset + i] = deriv.exercisable(t0 + sliceTime(T, n, i));
+        }
+    }
+    
+    /** fillExerciseSchedule on precomputed slice times, as from fillSlices */
+    static void fillExerciseSchedule(boolean[] schedule, int offset, Derivative deriv, double t0,
+                                     double[] sliceTimes, int n) {
+        for (int i = 0; i < n; i++) {
+            schedule[offset + i] = deriv.exercisable(t0 + sliceTimes[i]);
+        }
+    }
+    
+    /**
+     * Fills escrow[0..n] with the cash dividends still to be paid before
+     * maturity at each slice, the amount node spots are shifted by.
+     */
+    static void fillEscrow(double[] escrow, MarketData mkt, double T, int n) {
         for (int i = 0; i <= n; i++) {
-            for (int j = 0; j <= i; j++) {
-                stockPrices[i][j] = mkt.S * Math.pow(u, j) * Math.pow(d, i - j);
+            escrow[i] = mkt.dividendPV(sliceTime(T, n, i), T);
+        }
+    }
+    
+    /** fillEscrow on precomputed slice times, as from fillSlices */
+    static void fillEscrow(double[] escrow, MarketData mkt, double[] sliceTimes, double T, int n) {
+        for (int i = 0; i <= n; i++) {
+            escrow[i] = mkt.dividendPV(sliceTimes[i], T);
+        }
+    }
+    
+    /** Fills spots[0..2n] with the spot table; spots may be longer */
+    static void fillSpotTable(double[] spots, double S, double u, double d, int n) {
+        spots[n] = S;
+        for (int k = 1; k <= n; k++) {
+            if (k % SPOT_ANCHOR_INTERVAL == 0) {
+                spots[n + k] = S * Math.pow(u, k);
+                spots[n - k] = S * Math.pow(d, k);
+            } else {
+                spots[n + k] = spots[n + k - 1] * u;
+                spots[n - k] = spots[n - k + 1] * d;
             }
         }
+    }
+    
+    /**
+     * Fugit: the risk-neutral expected exercise time from the root. The
+     * lattice rolls exercise times back on the same clock as
+     * Derivative.getMaturity, so contracts that are never exercised early
+     * get their maturity.
+     */
+    private static double calculateFugit(double[] times, int offset) {
+        return times[offset];
+    }
+    
+    /**
+     * Calculates implied volatility with a safeguarded Newton-Raphson solver.
+     * 
+     * Newton steps use the tree vega at the current vol: the derivative of
+     * the lattice price, carried through the same induction for vanilla
+     * options (vegaLattice), or a repricing at vol + VEGA_BUMP on the same
+     * workspace for other contracts. A quote near the answer converges in
+     * three to five evaluations. Where the contract is exercised at the
+     * root the vega is zero and the next trial comes from floorStep.
+     * Every evaluation also narrows a bracket around the root. Brent's
+     * method only takes over on that bracket when a step leaves it or fails
+     * to halve the pricing error, so convergence is guaranteed whenever the
+     * market price lies between the model prices at IMPVOL_MIN and
+     * IMPVOL_MAX.
+     * European vanilla options (Derivative.hasClosedForm) skip the lattice
+     * entirely and are inverted by impvolBlackScholes.
+     * 
+     * @param deriv The derivative instrument
+     * @param mkt Market data; Price is the target and sigma the initial guess
+     * @param n Number of time steps
+     * @param max_iter Maximum number of lattice evaluations
+     * @param tol Convergence tolerance on price
+     * @param out Output object to fill, or null to allocate a new one
+     * @return Output with impvol, FV at impvol, num_iter (lattice
+     *         evaluations; a bumped repricing counts separately) and
+     *         converged set
+     */
+    public static Output impvol(final Derivative deriv, final MarketData mkt,
+                                int n, int max_iter, double tol, Output out) {
+        if (deriv instanceof VanillaOption && deriv.hasClosedForm()) {
+            return impvolBlackScholes((VanillaOption) deriv, mkt, out);
+        }
+        Output result = out != null ? out : new Output();
+        // Every repricing runs on these two workspaces; the second holds the
+        // bumped lattice and the tangents of the vega
+        LatticeWorkspace work = new LatticeWorkspace();
+        LatticeWorkspace bumped = new LatticeWorkspace();
+        DoubleUnaryOperator error = vol -> binom(deriv, mkt.withSigma(vol), n, DEFAULT_OPTIONS, work).FV
+                                           - mkt.Price;
         
-        // Initialize terminal conditions
-        for (int j = 0; j <= n; j++) {
-            Node terminalNode = new Node(stockPrices[n][j], n);
-            deriv.terminalCondition(terminalNode);
-            optionValues[n][j] = terminalNode.optionValue;
+        double lo = IMPVOL_MIN, hi = IMPVOL_MAX;
+        double fLo = Double.NaN, fHi = Double.NaN;
+        double vol = Math.max(IMPVOL_MIN, Math.min(mkt.sigma, IMPVOL_MAX));
+        double f = Double.NaN;
+        int evals = 0;
+        
+        // Newton phase; previous is the error the last Newton step started from
+        double previous = Double.POSITIVE_INFINITY;
+        while (evals < max_iter) {
+            Output at = latticeWithVega(deriv, mkt.withSigma(vol), n, hi, max_iter - evals, work, bumped);
+            evals += at.num_iter;
+            f = at.FV - mkt.Price;
+            if (Math.abs(f) < tol || Math.abs(f) > 0.5 * Math.abs(previous)) break;
+            if (f < 0) { lo = vol; fLo = f; } else { hi = vol; fHi = f; }
+            double next;
+            if (at.vega > 0) {
+                next = vol - f / at.vega;
+                previous = f;
+            } else if (f < 0) {
+                // Exercised at the root: the price is the exercise value and the answer lies above
+                next = floorStep(deriv, mkt, vol, hi);
+                previous = Double.POSITIVE_INFINITY;
+            } else {
+                break;
+            }
+            if (!(next > lo && next < hi)) break;
+            vol = next;
         }
+        if (Math.abs(f) < tol || evals >= max_iter) {
+            return setImpvol(result, vol, f + mkt.Price, evals, Math.abs(f) < tol);
+        }
+        if (f < 0) { lo = vol; fLo = f; } else { hi = vol; fHi = f; }
         
-        // Backward induction
-        double discountFactor = Math.exp(-mkt.r * dt);
-        for (int i = n - 1; i >= 0; i--) {
-            for (int j = 0; j <= i; j++) {
-                double continuation = discountFactor * (p * optionValues[i + 1][j + 1] + 
-                                                     (1 - p) * optionValues[i + 1][j]);
-                Node currentNode = new Node(stockPrices[i][j], i);
-                currentNode.optionValue = continuation;
-                deriv.valuationTest(currentNode, i * dt);
-                optionValues[i][j] = currentNode.optionValue;
+        // Brent fallback: make sure both bracket ends are priced and straddle the target
+        if (Double.isNaN(fLo) && evals < max_iter) { fLo = error.applyAsDouble(lo); evals++; }
+        if (Double.isNaN(fHi) && evals < max_iter) { fHi = error.applyAsDouble(hi); evals++; }
+        if (Double.isNaN(fLo) || Double.isNaN(fHi)) {
+            return setImpvol(result, vol, f + mkt.Price, evals, false);
+        }
+        if (fLo > 0) return setImpvol(result, lo, fLo + mkt.Price, evals, false);
+        if (fHi < 0) return setImpvol(result, hi, fHi + mkt.Price, evals, false);
+        
+        double a = lo, fa = fLo, b = hi, fb = fHi;
+        double c = b, fc = fb, d = b - a, e = d;
+        while (evals < max_iter) {
+            if ((fb > 0) == (fc > 0)) { c = a; fc = fa; d = b - a; e = d; }
+            if (Math.abs(fc) < Math.abs(fb)) { a = b; b = c; c = a; fa = fb; fb = fc; fc = fa; }
+            double xtol = 2 * Math.ulp(b) + 0.5 * IMPVOL_XTOL;
+            double xm = 0.5 * (c - b);
+            if (Math.abs(fb) < tol || Math.abs(xm) <= xtol) break;
+            if (Math.abs(e) >= xtol && Math.abs(fa) > Math.abs(fb)) {
+                // Inverse quadratic interpolation, or secant when only two points exist
+                double s = fb / fa, p, q;
+                if (a == c) {
+                    p = 2 * xm * s;
+                    q = 1 - s;
+                } else {
+                    double qa = fa / fc, r = fb / fc;
+                    p = s * (2 * xm * qa * (qa - r) - (b - a) * (r - 1));
+                    q = (qa - 1) * (r - 1) * (s - 1);
+                }
+                if (p > 0) q = -q;
+                p = Math.abs(p);
+                if (2 * p < Math.min(3 * xm * q - Math.abs(xtol * q), Math.abs(e * q))) {
+                    e = d;
+                    d = p / q;
+                } else {
+                    d = xm;
+                    e = d;
+                }
+            } else {
+                d = xm;
+                e = d;
             }
+            a = b;
+            fa = fb;
+            b += Math.abs(d) > xtol ? d : Math.copySign(xtol, xm);
+            fb = error.applyAsDouble(b);
+            evals++;
         }
+        return setImpvol(result, b, fb + mkt.Price, evals, Math.abs(fb) < tol);
+    }
+    
+    /**
+     * Lattice price at mkt.sigma with the tree vega in Output.vega, and the
+     * lattice evaluations it took in num_iter: one for vanilla options
+     * (vegaLattice), two otherwise, the second repriced VEGA_BUMP away
+     * towards the inside of the bracket below hi. With a single evaluation
+     * left, the vega is NaN.
+     */
+    private static Output latticeWithVega(Derivative deriv, MarketData mkt, int n, double hi, int budget,
+                                          LatticeWorkspace work, LatticeWorkspace bumped) {
+        if (VanillaOption.isVanilla(deriv)) {
+            Output output = vegaLattice((VanillaOption) deriv, mkt, n, work, bumped);
+            output.num_iter = 1;
+            return output;
+        }
+        Output output = binom(deriv, mkt, n, DEFAULT_OPTIONS, work);
+        output.num_iter = 1;
+        output.vega = Double.NaN;
+        if (budget > 1) {
+            double bump = mkt.sigma + VEGA_BUMP < hi ? VEGA_BUMP : -VEGA_BUMP;
+            double repriced = binom(deriv, mkt.withSigma(mkt.sigma + bump), n, DEFAULT_OPTIONS, bumped).FV;
+            output.vega = (repriced - output.FV) / bump;
+            output.num_iter = 2;
+        }
+        return output;
+    }
+    
+    /**
+     * Plain lattice price of a vanilla option (FV exactly as binom) with
+     * its tree vega, the derivative of that price in sigma, in Output.vega.
+     * 
+     * The derivative is carried through the induction alongside the values
+     * (forward mode). Only the O(n) lattice parameters, node spots and up
+     * probabilities, are differentiated by a PARAMETER_BUMP difference; the
+     * roll-back itself is differentiated exactly. An exercised node's
+     * tangent is the slope of the intrinsic value times the tangent of its
+     * spot, found by the same scan from the edge of the exercise region as
+     * binom. The vega costs a fraction of a second lattice and has none of
+     * the noise a bumped repricing picks up as nodes cross the strike.
+     * Other fields are left at zero.
+     */
+    private static Output vegaLattice(VanillaOption option, MarketData mkt, int n,
+                                      LatticeWorkspace work, LatticeWorkspace bumped) {
+        double T = option.getMaturity() - mkt.t0;
+        double strike = option.getStrike();
+        double slope = option.isCall() ? 1.0 : -1.0;
+        LatticeModel model = DEFAULT_OPTIONS.model;
+        MarketData shifted = mkt.withSigma(mkt.sigma + PARAMETER_BUMP);
+        MarketData process = mkt.escrowed(T);
+        LatticeModel.Step step = model.step(process.flat(T), strike, T, n);
+        LatticeModel.Step shiftedStep = model.step(shifted.escrowed(T).flat(T), strike, T, n);
         
-        output.FV = optionValues[0][0];
-        output.fugit = calculateFugit(optionValues, stockPrices, deriv, n, dt);
+        // The lattice's parameters, then the same at sigma + PARAMETER_BUMP
+        work.ensure(n, false);
+        bumped.ensure(n, false);
+        double[] spots = work.spots, scales = work.scales, probabilities = work.probabilities;
+        double[] discounts = work.discounts, sliceTimes = work.sliceTimes, escrow = work.escrow;
+        boolean[] schedule = work.schedule;
+        fillSpotTable(spots, process.S, step.ratio, 1.0 / step.ratio, n);
+        fillSlices(sliceTimes, scales, discounts, probabilities, mkt, step, T, n);
+        fillEscrow(escrow, mkt, sliceTimes, T, n);
+        fillExerciseSchedule(schedule, 0, option, mkt.t0, sliceTimes, n);
+        double[] shiftedSpots = bumped.spots, shiftedScales = bumped.scales;
+        double[] shiftedProbabilities = bumped.probabilities;
+        fillSpotTable(shiftedSpots, process.S, shiftedStep.ratio, 1.0 / shiftedStep.ratio, n);
+        fillSlices(bumped.sliceTimes, shiftedScales, bumped.discounts, shiftedProbabilities, shifted,
+                   shiftedStep, T, n);
         
+        // values as in lattice; tangents[j] is d values[j] / d sigma
+        double[] values = work.values;
+        double[] tangents = bumped.values;
+        int side = option.exerciseSide();
+        for (int j = 0; j <= n; j++) {
+            double spot = scales[n] * spots[2 * j];
+            double spotTangent = (shiftedScales[n] * shiftedSpots[2 * j] - spot) / PARAMETER_BUMP;
+            values[j] = option.terminal(spot);
+            tangents[j] = values[j] > 0 ? slope * spotTangent : 0.0;
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double p = probabilities[i], discountFactor = discounts[i];
+            double pTangent = (shiftedProbabilities[i] - p) / PARAMETER_BUMP;
+            double scale = scales[i], shiftedScale = shiftedScales[i], shift = escrow[i];
+            double t = mkt.t0 + sliceTimes[i];
+            for (int j = 0; j <= i; j++) {
+                tangents[j] = discountFactor * (pTangent * (values[j + 1] - values[j])
+                                                + p * tangents[j + 1] + (1 - p) * tangents[j]);
+                values[j] = discountFactor * (p * values[j + 1] + (1 - p) * values[j]);
+            }
+            if (!schedule[i]) continue;
+            // The exercise region is one-sided: scan in from its edge, as exerciseScan does
+            int j = side == Derivative.EXERCISE_BELOW ? 0 : i;
+            int k = n - i + 2 * j;
+            while (j >= 0 && j <= i) {
+                double spot = scale * spots[k];
+                double value = option.exercise(spot + shift, values[j], t);
+                if (!(value > values[j])) break;
+                values[j] = value;
+                tangents[j] = slope * (shiftedScale * shiftedSpots[k] - spot) / PARAMETER_BUMP;
+                j -= side;
+                k -= 2 * side;
+            }
+        }
+        Output output = new Output();
+        output.FV = values[0];
+        output.vega = tangents[0];
         return output;
     }
     
-    private static double calculateFugit(double[][] optionValues, double[][] stockPrices, 
-                                       Derivative deriv, int n, double dt) {
-        // Simple fugit calculation - can be enhanced if needed
-        return deriv.getMaturity();
+    /**
+     * Next impvol trial above a vol at which the contract is exercised at
+     * the root, where the vega gives no direction. Early exercise only adds
+     * value, so for a vanilla option the Black-Scholes implied vol of the
+     * quote bounds the answer from above and is a good place to resume
+     * Newton; otherwise the vol doubles. The trial stays below the bracket
+     * end hi.
+     */
+    private static double floorStep(Derivative deriv, MarketData mkt, double vol, double hi) {
+        double next = 2 * vol;
+        if (VanillaOption.isVanilla(deriv)) {
+            VanillaOption option = (VanillaOption) deriv;
+            double T = option.getMaturity() - mkt.t0;
+            MarketData flat = mkt.flat(T);
+            double european = BlackScholes.impliedVol(mkt.Price, flat.prepaidForward(T), option.getStrike(),
+                                                      flat.r, T, option.isCall());
+            if (european > vol) next = european;
+        }
+        return Math.min(next, 0.5 * (vol + hi));
     }
     
-    public static Output impvol(final Derivative deriv, final MarketData mkt,
-                          int n, int max_iter, double tol, Output out) {
-    Output result = new Output();
-    double vol = 0.3; // Initial guess
-    
-    for (int i = 0; i < max_iter; i++) {
-        try {
-            MarketData tempMkt = new MarketData(mkt.Price, mkt.S, mkt.r, vol, mkt.t0);
-            Output tempOut = binom(deriv, tempMkt, n);
-            
-            double diff = tempOut.FV - mkt.Price;
-            if (Math.abs(diff) < tol) {
-                result.impvol = vol;
-                result.num_iter = i + 1;
-                return result;
-            }
-            
-            // Modified Newton step with bounds checking
-            double newVol = vol - diff * 0.1;
-            // Ensure volatility stays positive and reasonable
-            vol = Math.max(0.001, Math.min(newVol, 2.0));
-            
-        } catch (IllegalArgumentException e) {
-            // If we get an invalid volatility, adjust and continue
-            vol = 0.3; // Reset to initial guess
-        }
-    }
-    
-    // If we didn't converge, still return best estimate
-    result.impvol = vol;
-    result.num_iter = max_iter;
-    return result;
-}
-
+    /**
+     * Calculates the Black-Scholes implied volatility of a European option.
+     * 
+     * The inversion is closed-form up to a few Householder steps (see
+     * BlackScholes.impliedVol), reaches machine precision and never touches
+     * the lattice, so num_iter is always 0. A price outside the no-arbitrage
+     * bounds reports the nearer end of the impvol search interval with
+     * converged set to false.
+     * 
+     * @param option The European option
+     * @param mkt Market data; Price is the target
+     * @param out Output object to fill, or null to allocate a new one
+     * @return Output with impvol, FV at impvol, num_iter and converged set
+     */
+    public static Output impvolBlackScholes(final VanillaOption option, final MarketData mkt, Output out) {
+        Output result = out != null ? out : new Output();
+        double T = option.getMaturity() - mkt.t0;
+        double K = option.getStrike();
+        MarketData flat = mkt.flat(T);
+        double forward = flat.prepaidForward(T);
+        double vol = BlackScholes.impliedVol(mkt.Price, forward, K, flat.r, T, option.isCall());
+        if (Double.isNaN(vol)) {
+            double ceiling = option.isCall() ? forward : K * Math.exp(-flat.r * T);
+            vol = mkt.Price >= ceiling ? IMPVOL_MAX : IMPVOL_MIN;
+            return setImpvol(result, vol, BlackScholes.price(forward, K, flat.r, vol, T, option.isCall()), 0, false);
+        }
+        return setImpvol(result, vol, mkt.Price, 0, true);
+    }
+    
+    private static Output setImpvol(Output result, double vol, double price, int evals, boolean converged) {
+        result.impvol = vol;
+        result.FV = price;
+        result.num_iter = evals;
+        result.converged = converged;
+        return result;
+    }
 }
 
 /*
@@ -0,0 +1,304 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Longstaff-Schwartz least-squares Monte Carlo engine.
+ * 
+ * Paths are stored column-major in one primitive array: the spots of all
+ * paths at time slice k are contiguous at paths[k * count ..], so each
+ * regression step streams through one slice. Paths are generated in
+ * chunks of CHUNK_PATHS. Each chunk draws from its own SplittableRandom,
+ * split from the root seed before any work starts, so the result does
+ * not depend on how chunks are scheduled across threads.
+ * 
+ * The exercise value at a node is exercise(S, -infinity, t), as in the
+ * finite-difference engine, so Bermudan windows and any other Derivative
+ * work unchanged. Continuation values are regressed on 1, x, x^2 with
+ * x = S / S0 over the paths where exercise is worth something.
+ * 
+ * Paths follow the escrowed spot (MarketData.escrowed) with drift r - q;
+ * the payoff callbacks see it plus the cash dividends still to be paid.
+ */
+final class LongstaffSchwartz {
+    /** Paths per generation task; even, so antithetic pairs never straddle chunks */
+    private static final int CHUNK_PATHS = 4096;
+
+    private LongstaffSchwartz() {
+    }
+
+    /**
+     * Prices a derivative by least-squares Monte Carlo.
+     * 
+     * FV is the discounted mean cash flow under the regressed exercise
+     * policy, floored by immediate exercise. std_error is its standard
+     * error, and fugit is the mean exercise time over all paths. The
+     * Greeks are left at zero.
+     * 
+     * @param deriv The derivative to price
+     * @param mkt Market data for calculation
+     * @param options Path count, exercise dates and variance reduction
+     * @return Output object containing pricing results
+     */
+    static Output price(final Derivative deriv, final MarketData mkt, final MonteCarloOptions options) {
+        if (options.paths <= 0) throw new IllegalArgumentException("Number of paths must be positive");
+        if (options.steps <= 0) throw new IllegalArgumentException("Number of steps must be positive");
+
+        int m = options.steps;
+        int count = options.antithetic ? (options.paths + 1) & ~1 : options.paths;
+        double T = deriv.getMaturity() - mkt.t0;
+        double dt = T / m;
+        MarketData process = mkt.escrowed(T);
+        double[] paths = new double[m * count];
+
+        // One stream per chunk, split up front so the paths never depend on scheduling
+        int chunks = (count + CHUNK_PATHS - 1) / CHUNK_PATHS;
+        SplittableRandom root = new SplittableRandom(options.seed);
+        SplittableRandom[] streams = new SplittableRandom[chunks];
+        for (int c = 0; c < chunks; c++) {
+            streams[c] = root.split();
+        }
+        PathTask generation = new PathTask(paths, count, m, process, dt, options.antithetic, streams, 0, chunks);
+        if (options.parallel) {
+            options.pool.invoke(generation);
+        } else {
+            generation.generate(0, chunks);
+        }
+
+        // Cash flow of each path, discounted to the slice being processed
+        double[] values = new double[count];
+        double[] exerciseTime = new double[count];
+        double[] exercise = new double[count];
+        int last = (m - 1) * count;
+        for (int p = 0; p < count; p++) {
+            values[p] = deriv.terminal(paths[last + p]);
+            exerciseTime[p] = T;
+        }
+
+        double discountFactor = Math.exp(-mkt.r * dt);
+        double[] normal = new double[12];
+        double[] beta = new double[3];
+        for (int k = m - 2; k >= 0; k--) {
+            int slice = k * count;
+            double t = Library.sliceTime(T, m, k + 1);
+            double shift = mkt.dividendPV(t, T);
+            double clock = mkt.t0 + t;
+            if (!deriv.exercisable(clock)) {
+                for (int p = 0; p < count; p++) {
+                    values[p] *= discountFactor;
+                }
+                continue;
+            }
+            // Normal equations of the regression over in-the-money paths
+            Arrays.fill(normal, 0.0);
+            int itm = 0;
+            for (int p = 0; p < count; p++) {
+                values[p] *= discountFactor;
+                double S = paths[slice + p] + shift;
+                exercise[p] = deriv.exercise(S, Double.NEGATIVE_INFINITY, clock);
+                if (exercise[p] > 0) {
+                    double x = S / mkt.S, x2 = x * x, y = values[p];
+                    normal[0] += 1;   normal[1] += x;      normal[2] += x2;      normal[3] += y;
+                    normal[5] += x2;  normal[6] += x2 * x; normal[7] += x * y;
+                    normal[10] += x2 * x2;                 normal[11] += x2 * y;
+                    itm++;
+                }
+            }
+            if (itm < beta.length || !solveNormalEquations(normal, beta)) continue;
+            for (int p = 0; p < count; p++) {
+                if (exercise[p] > 0) {
+                    double x = (paths[slice + p] + shift) / mkt.S;
+                    double continuation = beta[0] + x * (beta[1] + x * beta[2]);
+                    if (exercise[p] > continuation) {
+                        values[p] = exercise[p];
+                        exerciseTime[p] = t;
+                    }
+                }
+            }
+        }
+
+        // Per-sample estimates; antithetic pairs count as one sample
+        double controlMean = controlExpectation(deriv, mkt, T);
+        double terminalDiscount = Math.exp(-mkt.r * T);
+        int step = options.antithetic ? 2 : 1;
+        int samples = count / step;
+        double sumY = 0, sumX = 0, sumTime = 0;
+        for (int p = 0; p < count; p++) {
+            values[p] *= discountFactor;
+            sumY += values[p];
+            sumX += terminalDiscount * control(deriv, paths[last + p]);
+            sumTime += exerciseTime[p];
+        }
+        double meanY = sumY / count, meanX = sumX / count;
+        double sxx = 0, sxy = 0, syy = 0;
+        for (int p = 0; p < count; p += step) {
+            double y = values[p], x = terminalDiscount * control(deriv, paths[last + p]);
+            if (step == 2) {
+                y = 0.5 * (y + values[p + 1]);
+                x = 0.5 * (x + terminalDiscount * control(deriv, paths[last + p + 1]));
+            }
+            sxx += (x - meanX) * (x - meanX);
+            sxy += (x - meanX) * (y - meanY);
+            syy += (y - meanY) * (y - meanY);
+        }
+
+        double estimate = meanY;
+        double residual = syy;
+        if (options.controlVariate && sxx > 0) {
+            double b = sxy / sxx;
+            estimate = meanY - b * (meanX - controlMean);
+            // Floored at zero: a perfect control (a European option) leaves only rounding
+            residual = Math.max(0.0, syy - b * sxy);
+        }
+
+        Output output = new Output();
+        double atRoot = deriv.exercise(mkt.S, estimate, mkt.t0);
+        output.FV = atRoot;
+        output.std_error = samples > 1 ? Math.sqrt(residual / (samples - 1) / samples) : 0.0;
+        output.fugit = atRoot > estimate ? mkt.t0 : mkt.t0 + sumTime / count;
+        return output;
+    }
+
+    /**
+     * Payoff used as the control variate: the contract's own European
+     * payoff for vanilla options, otherwise the terminal spot.
+     */
+    private static double control(Derivative deriv, double S) {
+        return VanillaOption.isVanilla(deriv) ? deriv.terminal(S) : S;
+    }
+
+    /** Known present value of the control payoff */
+    private static double controlExpectation(Derivative deriv, MarketData mkt, double T) {
+        if (VanillaOption.isVanilla(deriv)) {
+            VanillaOption option = (VanillaOption) deriv;
+            return BlackScholes.price(mkt.prepaidForward(T), option.getStrike(), mkt.r, mkt.sigma, T,
+                                      option.isCall());
+        }
+        return mkt.prepaidForward(T);
+    }
+
+    /**
+     * Solves the symmetric 3x3 system stored row-major with the right-hand
+     * side in column 3 (only the upper triangle is filled in). Returns
+     * false when the paths do not span the basis.
+     */
+    private static boolean solveNormalEquations(double[] a, double[] beta) {
+        a[4] = a[1];
+        a[8] = a[2];
+        a[9] = a[6];
+        for (int col = 0; col < 3; col++) {
+            int pivot = col;
+            for (int row = col + 1; row < 3; row++) {
+                if (Math.abs(a[row * 4 + col]) > Math.abs(a[pivot * 4 + col])) pivot = row;
+            }
+            if (Math.abs(a[pivot * 4 + col]) < 1e-12 * Math.abs(a[0])) return false;
+            if (pivot != col) {
+                for (int j = 0; j < 4; j++) {
+                    double swap = a[col * 4 + j];
+                    a[col * 4 + j] = a[pivot * 4 + j];
+                    a[pivot * 4 + j] = swap;
+                }
+            }
+            for (int row = col + 1; row < 3; row++) {
+                double f = a[row * 4 + col] / a[col * 4 + col];
+                for (int j = col; j < 4; j++) {
+                    a[row * 4 + j] -= f * a[col * 4 + j];
+                }
+            }
+        }
+        for (int row = 2; row >= 0; row--) {
+            double sum = a[row * 4 + 3];
+            for (int j = row + 1; j < 3; j++) {
+                sum -= a[row * 4 + j] * beta[j];
+            }
+            beta[row] = sum / a[row * 4 + row];
+        }
+        return true;
+    }
+
+    /** Generates a range of path chunks, splitting it across the pool */
+    @SuppressWarnings("serial")
+    private static final class PathTask extends RecursiveAction {
+        private final double[] paths;
+        private final int count;
+        private final int m;
+        private final MarketData mkt;
+        private final double dt;
+        private final boolean antithetic;
+        private final SplittableRandom[] streams;
+        private final int from;
+        private final int to;
+
+        PathTask(double[] paths, int count, int m, MarketData mkt, double dt, boolean antithetic,
+                 SplittableRandom[] streams, int from, int to) {
+            this.paths = paths;
+            this.count = count;
+            this.m = m;
+            this.mkt = mkt;
+            this.dt = dt;
+            this.antithetic = antithetic;
+            this.streams = streams;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PathTask(paths, count, m, mkt, dt, antithetic, streams, from, mid),
+                          new PathTask(paths, count, m, mkt, dt, antithetic, streams, mid, to));
+                return;
+            }
+            generate(from, to);
+        }
+
+        /** Fills chunks [from, to) slice by slice, so every write is sequential */
+        void generate(int from, int to) {
+            double drift = (mkt.r - mkt.q - 0.5 * mkt.sigma * mkt.sigma) * dt;
+            double vol = mkt.sigma * Math.sqrt(dt);
+            for (int c = from; c < to; c++) {
+                Gaussian gaussian = new Gaussian(streams[c]);
+                int begin = c * CHUNK_PATHS, end = Math.min(count, begin + CHUNK_PATHS);
+                for (int k = 0; k < m; k++) {
+                    int slice = k * count, previous = slice - count;
+                    double z = 0;
+                    for (int p = begin; p < end; p++) {
+                        // Odd members of an antithetic pair mirror the draw of their partner
+                        z = (antithetic && ((p - begin) & 1) == 1) ? -z : gaussian.next();
+                        double spot = k == 0 ? mkt.S : paths[previous + p];
+                        paths[slice + p] = spot * Math.exp(drift + vol * z);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Standard normals by the Marsaglia polar method, which yields them in pairs */
+    private static final class Gaussian {
+        private final SplittableRandom random;
+        private double spare;
+        private boolean hasSpare;
+
+        Gaussian(SplittableRandom random) {
+            this.random = random;
+        }
+
+        double next() {
+            if (hasSpare) {
+                hasSpare = false;
+                return spare;
+            }
+            double u, v, s;
+            do {
+                u = 2 * random.nextDouble() - 1;
+                v = 2 * random.nextDouble() - 1;
+                s = u * u + v * v;
+            } while (s >= 1 || s == 0);
+            double scale = Math.sqrt(-2 * Math.log(s) / s);
+            spare = v * scale;
+            hasSpare = true;
+            return u * scale;
+        }
+    }
+}
@@ -2,18 +2,36 @@
  * Contains market data required for option pricing calculations.
  * This class encapsulates all market-related parameters needed
  * for the binomial model calculations.
+ * 
+ * MarketData is an immutable snapshot, so one instance can be shared by
+ * any number of concurrent pricing calls. Scenarios are new snapshots,
+ * e.g. via withSigma.
+ * 
+ * r and sigma are flat by default. A DiscountCurve or VolCurve replaces
+ * them with a term structure; engines then read discount and variance,
+ * never r or sigma directly.
  */
 final class MarketData {
     /** Current market price of the security */
-    public double Price;
+    public final double Price;
     /** Current stock price */
-    public double S;
+    public final double S;
     /** Risk-free interest rate (annual, continuous compounding) */
-    public double r;
+    public final double r;
     /** Stock price volatility (annual) */
-    public double sigma;
+    public final double sigma;
     /** Current time (usually 0) */
-    public double t0;
+    public final double t0;
+    /** Continuous dividend yield (annual); 0 unless set with withDividendYield */
+    public final double q;
+    /** Cash dividend dates, ascending, on the same clock as maturity */
+    private final double[] dividendTimes;
+    /** Cash dividend amounts, one per date */
+    private final double[] dividendAmounts;
+    /** Term structure of rates, or null for the flat rate r */
+    private final DiscountCurve discountCurve;
+    /** Term structure of volatility, or null for the flat sigma */
+    private final VolCurve volCurve;
     
     /**
      * Creates a new MarketData instance with validation.
@@ -26,12 +44,243 @@ final class MarketData {
      * @throws IllegalArgumentException if any parameters are invalid
      */
     public MarketData(double price, double s, double r, double sigma, double t0) {
+        this(price, s, r, sigma, t0, 0.0, new double[0], new double[0], null, null);
+    }
+    
+    private MarketData(double price, double s, double r, double sigma, double t0,
+                       double q, double[] dividendTimes, double[] dividendAmounts,
+                       DiscountCurve discountCurve, VolCurve volCurve) {
         validateInputs(price, s, r, sigma, t0);
         this.Price = price;
         this.S = s;
         this.r = r;
         this.sigma = sigma;
         this.t0 = t0;
+        this.q = q;
+        this.dividendTimes = dividendTimes;
+        this.dividendAmounts = dividendAmounts;
+        this.discountCurve = discountCurve;
+        this.volCurve = volCurve;
+    }
+    
+    /**
+     * Returns a copy of this snapshot with a different, flat volatility.
+     * Any vol curve is dropped; the discount curve is kept.
+     * 
+     * @param sigma The new volatility
+     * @return A new MarketData instance
+     */
+    public MarketData withSigma(double sigma) {
+        return new MarketData(Price, S, r, sigma, t0, q, dividendTimes, dividendAmounts,
+                              discountCurve, null);
+    }
+    
+    /**
+     * Returns a copy of this snapshot with a different option price, the
+     * target of an implied volatility search.
+     * 
+     * @param price The quoted option price
+     * @return A new MarketData instance
+     */
+    public MarketData withPrice(double price) {
+        return new MarketData(price, S, r, sigma, t0, q, dividendTimes, dividendAmounts,
+                              discountCurve, volCurve);
+    }
+    
+    /**
+     * Returns a copy of this snapshot that discounts on a curve instead of
+     * the flat rate r.
+     * 
+     * @param curve The discount curve, or null for the flat rate
+     * @return A new MarketData instance
+     */
+    public MarketData withDiscountCurve(DiscountCurve curve) {
+        return new MarketData(Price, S, r, sigma, t0, q, dividendTimes, dividendAmounts, curve, volCurve);
+    }
+    
+    /**
+     * Returns a copy of this snapshot with a volatility term structure
+     * instead of the flat sigma.
+     * 
+     * @param curve The vol curve, or null for the flat sigma
+     * @return A new MarketData instance
+     */
+    public MarketData withVolCurve(VolCurve curve) {
+        return new MarketData(Price, S, r, sigma, t0, q, dividendTimes, dividendAmounts,
+                              discountCurve, curve);
+    }
+    
+    /**
+     * Returns a copy of this snapshot with a continuous dividend yield,
+     * which enters the risk-neutral drift as r - q.
+     * 
+     * @param q The dividend yield (annual, continuous)
+     * @return A new MarketData instance
+     */
+    public MarketData withDividendYield(double q) {
+        if (Double.isNaN(q) || Double.isInfinite(q))
+            throw new IllegalArgumentException("Dividend yield must be finite");
+        return new MarketData(Price, S, r, sigma, t0, q, dividendTimes, dividendAmounts,
+                              discountCurve, volCurve);
+    }
+    
+    /**
+     * Returns a copy of this snapshot with one more cash dividend.
+     * 
+     * Cash dividends follow the escrowed-spot model: the present value of
+     * the dividends still to be paid is riskless, and only the rest of the
+     * spot diffuses with volatility sigma. The stock goes ex-dividend at
+     * time, so a node at that exact time already excludes the dividend.
+     * 
+     * @param time Payment date, on the same clock as maturity
+     * @param amount Cash amount per share
+     * @return A new MarketData instance
+     */
+    public MarketData withDividend(double time, double amount) {
+        if (amount < 0) throw new IllegalArgumentException("Dividend amount cannot be negative");
+        if (time < 0) throw new IllegalArgumentException("Dividend time cannot be negative");
+        int count = dividendTimes.length, at = count;
+        while (at > 0 && dividendTimes[at - 1] > time) at--;
+        double[] times = new double[count + 1];
+        double[] amounts = new double[count + 1];
+        System.arraycopy(dividendTimes, 0, times, 0, at);
+        System.arraycopy(dividendAmounts, 0, amounts, 0, at);
+        times[at] = time;
+        amounts[at] = amount;
+        System.arraycopy(dividendTimes, at, times, at + 1, count - at);
+        System.arraycopy(dividendAmounts, at, amounts, at + 1, count - at);
+        return new MarketData(Price, S, r, sigma, t0, q, times, amounts, discountCurve, volCurve);
+    }
+    
+    /** Whether a discount or vol curve replaces the flat r or sigma */
+    public boolean hasTermStructure() {
+        return discountCurve != null || volCurve != null;
+    }
+    
+    /** Whether a vol curve replaces the flat sigma */
+    public boolean hasVolCurve() {
+        return volCurve != null;
+    }
+    
+    /**
+     * Discount factor from t0 to t0 + t.
+     * 
+     * @param t Time measured from t0
+     * @return The curve's discount factor, or exp(-r t)
+     */
+    public double discount(double t) {
+        return discountCurve != null ? discountCurve.discount(t) : Math.exp(-r * t);
+    }
+    
+    /**
+     * Total variance of ln S from t0 to t0 + t.
+     * 
+     * @param t Time measured from t0
+     * @return The curve's total variance, or sigma^2 t
+     */
+    public double variance(double t) {
+        return volCurve != null ? volCurve.variance(t) : sigma * sigma * t;
+    }
+    
+    /**
+     * Instantaneous forward rate at t0 + t.
+     * 
+     * @param t Time measured from t0
+     * @return The curve's forward rate, or r
+     */
+    public double forwardRate(double t) {
+        return discountCurve != null ? discountCurve.forwardRate(t) : r;
+    }
+    
+    /**
+     * Instantaneous variance rate of ln S at t0 + t.
+     * 
+     * @param t Time measured from t0
+     * @return The curve's forward variance, or sigma^2
+     */
+    public double forwardVariance(double t) {
+        return volCurve != null ? volCurve.forwardVariance(t) : sigma * sigma;
+    }
+    
+    /**
+     * Time by which total variance w has accrued; the inverse of variance.
+     * 
+     * @param w Total variance
+     * @return The time t, measured from t0, with variance(t) = w
+     */
+    public double varianceTime(double w) {
+        return volCurve != null ? volCurve.time(w) : w / (sigma * sigma);
+    }
+    
+    /**
+     * The flat snapshot equivalent over a horizon T: r is the zero rate to
+     * T and sigma the term vol to T, so European payoffs at T price exactly
+     * as on the curves. Cash dividend amounts are rescaled so that their
+     * present values are unchanged.
+     * 
+     * @param T Horizon, measured from t0
+     * @return This snapshot if it has no term structure
+     */
+    public MarketData flat(double T) {
+        if (!hasTermStructure()) return this;
+        double rate = -Math.log(discount(T)) / T;
+        double vol = Math.sqrt(variance(T) / T);
+        double[] amounts = dividendAmounts.clone();
+        for (int k = 0; k < amounts.length; k++) {
+            double tau = dividendTimes[k] - t0;
+            if (tau > 0) amounts[k] *= discount(tau) * Math.exp(rate * tau);
+        }
+        return new MarketData(Price, S, rate, vol, t0, q, dividendTimes, amounts, null, null);
+    }
+    
+    /**
+     * Present value at t0 + from of the cash dividends paid after t0 + from
+     * and no later than t0 + to, discounted at r or on the discount curve.
+     * 
+     * @param from Start of the period, measured from t0
+     * @param to End of the period, measured from t0
+     * @return The escrowed amount at t0 + from
+     */
+    public double dividendPV(double from, double to) {
+        double pv = 0;
+        for (int k = 0; k < dividendTimes.length; k++) {
+            double tau = dividendTimes[k] - t0;
+            if (!(tau > from && tau <= to)) continue;
+            double growth = discountCurve != null ? discountCurve.discount(tau) / discountCurve.discount(from)
+                                                  : Math.exp(-r * (tau - from));
+            pv += dividendAmounts[k] * growth;
+        }
+        return pv;
+    }
+    
+    /**
+     * Present value of receiving the stock at t0 + T: the spot less the
+     * cash dividends paid in between, reduced by the dividend yield. This is
+     * the spot to use in the Black-Scholes formula.
+     * 
+     * @param T Horizon, measured from t0
+     * @return (S - dividendPV(0, T)) * exp(-q T)
+     */
+    public double prepaidForward(double T) {
+        return (S - dividendPV(0, T)) * Math.exp(-q * T);
+    }
+    
+    /**
+     * The escrowed-spot process over a horizon T: the spot less the
+     * dividends paid within T, with those dividends removed. Engines build
+     * their grids from this snapshot and add dividendPV(t, T) back wherever
+     * a payoff needs the actual spot at time t.
+     * 
+     * @param T Horizon, measured from t0
+     * @return This snapshot if no cash dividend falls within T
+     * @throws IllegalArgumentException if the dividends exceed the spot
+     */
+    public MarketData escrowed(double T) {
+        double pv = dividendPV(0, T);
+        if (pv == 0) return this;
+        if (pv >= S) throw new IllegalArgumentException("Cash dividends exceed the stock price");
+        return new MarketData(Price, S - pv, r, sigma, t0, q, new double[0], new double[0],
+                              discountCurve, volCurve);
     }
     
     /**
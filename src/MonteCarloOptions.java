@@ -0,0 +1,39 @@
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Settings for the Longstaff-Schwartz Monte Carlo engine.
+ * 
+ * A default-constructed instance prices with 100,000 antithetic paths,
+ * 50 exercise dates and a control variate, generating paths in parallel
+ * on the common pool. The fixed seed makes results reproducible, and
+ * identical whether or not parallel mode is on.
+ */
+final class MonteCarloOptions {
+    /** Number of simulated paths; rounded up to even with antithetic pairs */
+    public int paths;
+    /** Time steps per path, which are also the exercise dates */
+    public int steps;
+    /** Seed of the root random stream */
+    public long seed;
+    /** Pair every path with its mirror image */
+    public boolean antithetic;
+    /** Correct the estimate with the European payoff on the same paths */
+    public boolean controlVariate;
+    /** Generate paths across a ForkJoinPool */
+    public boolean parallel;
+    /** Pool used in parallel mode; the common pool unless set */
+    public ForkJoinPool pool;
+
+    /**
+     * Creates the default Monte Carlo settings.
+     */
+    public MonteCarloOptions() {
+        this.paths = 100000;
+        this.steps = 50;
+        this.seed = 42L;
+        this.antithetic = true;
+        this.controlVariate = true;
+        this.parallel = true;
+        this.pool = ForkJoinPool.commonPool();
+    }
+}
@@ -2,6 +2,10 @@
  * Represents a node in the binomial tree structure.
  * Each node contains information about the stock price and option value
  * at a specific point in time and state.
+ * 
+ * The lattice engines no longer create nodes; they call the primitive
+ * Derivative.terminal and Derivative.exercise callbacks instead. Node is
+ * kept as the adapter type for terminalCondition and valuationTest.
  */
 class Node {
     /** Current stock price at this node */
@@ -16,6 +16,10 @@
  * @version 1.0
  */
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 
 /**
  * Comprehensive test suite for the option pricing library.
@@ -40,6 +44,44 @@ public class OptionPricingTest {
         System.out.println();
         testImpliedVolatility();
         System.out.println();
+        testLargeLattice();
+        System.out.println();
+        testLegacyCallbacks();
+        System.out.println();
+        testBatchPricing();
+        System.out.println();
+        testBlackScholes();
+        System.out.println();
+        testLatticeGreeks();
+        System.out.println();
+        testParallelLattice();
+        System.out.println();
+        testPortfolioPricer();
+        System.out.println();
+        testRichardson();
+        System.out.println();
+        testLatticeModels();
+        System.out.println();
+        testTrinomial();
+        System.out.println();
+        testFiniteDifference();
+        System.out.println();
+        testMonteCarlo();
+        System.out.println();
+        testExerciseBoundary();
+        System.out.println();
+        testExerciseScan();
+        System.out.println();
+        testExerciseSchedule();
+        System.out.println();
+        testVectorKernel();
+        System.out.println();
+        testDividends();
+        System.out.println();
+        testTermStructure();
+        System.out.println();
+        testVolSurface();
+        System.out.println();
         testMarketScenario("GOOGL", 135.75, 0.04, 0.25);
     }
 
@@ -174,6 +216,1214 @@ public class OptionPricingTest {
         Output result = Library.impvol(option, mkt, 50, 100, 0.0001, null);
         System.out.printf("Target Price: %.2f%n", marketPrice);
         printResult("Implied Vol Calculation", result, K, S, result.impvol);
+
+        // European quotes are inverted in closed form, without the lattice
+        MarketData atImpvol = new MarketData(marketPrice, S, r, result.impvol, 0.0);
+        double repriced = Library.price(option, atImpvol, 50).FV;
+        if (result.converged && result.num_iter == 0 && Math.abs(repriced - marketPrice) < 1e-12) {
+            System.out.printf("✓ European quote inverted to machine precision: %.15f%n", repriced);
+        } else {
+            System.out.printf("❌ Failed: repriced %.15f after %d evaluations%n", repriced, result.num_iter);
+        }
+
+        // Out-of-the-money quotes, where all of the price is time value
+        double maxErr = 0;
+        for (double strike = 60.0; strike <= 150.0; strike += 10.0) {
+            for (double vol = 0.05; vol < 2.0; vol *= 2) {
+                boolean isCall = strike >= S;
+                VanillaOption euro = new VanillaOption(strike, isCall, false, 0.5);
+                double price = BlackScholes.price(S, strike, r, vol, 0.5, isCall);
+                if (price < 1e-6) continue;
+                MarketData quote = new MarketData(price, S, r, 0.2, 0.0);
+                double iv = Library.impvol(euro, quote, 50, 100, 0.0001, null).impvol;
+                maxErr = Math.max(maxErr, Math.abs(iv - vol) / vol);
+            }
+        }
+        if (maxErr < 1e-9) {
+            System.out.printf("✓ Black-Scholes round trip, max relative vol error %.1e%n", maxErr);
+        } else {
+            System.out.printf("❌ Failed: round trip vol error %.2e%n", maxErr);
+        }
+
+        // American put, deep ITM and far OTM quotes
+        double[][] quotes = {{100.0, 6.5}, {130.0, 30.5}, {70.0, 0.05}};
+        for (double[] quote : quotes) {
+            VanillaOption amPut = new VanillaOption(quote[0], false, true, T);
+            MarketData quoteMkt = new MarketData(quote[1], S, r, 0.2, 0.0);
+            Output iv = Library.impvol(amPut, quoteMkt, 50, 100, 0.0001, null);
+            if (iv.converged) {
+                System.out.printf("✓ American put K=%.0f: vol %.4f in %d evaluations%n",
+                                 quote[0], iv.impvol, iv.num_iter);
+            } else {
+                System.out.printf("❌ Failed: American put K=%.0f did not converge%n", quote[0]);
+            }
+        }
+
+        // Deep in-the-money American puts: Newton on the tree vega needs at
+        // most five lattice evaluations, from either side of the answer and
+        // from a guess at which the put is exercised at once
+        double[][] deep = {{120.0, 0.25, 0.2}, {120.0, 0.25, 0.3}, {130.0, 0.28, 0.2}, {130.0, 0.3, 0.35}};
+        int worst = 0;
+        double worstVol = 0;
+        for (double[] c : deep) {
+            VanillaOption amPut = new VanillaOption(c[0], false, true, T);
+            double price = Library.binom(amPut, new MarketData(10.0, S, r, c[1], 0.0), 50).FV;
+            Output iv = Library.impvol(amPut, new MarketData(price, S, r, c[2], 0.0), 50, 100, 0.0001, null);
+            worst = Math.max(worst, iv.converged ? iv.num_iter : Integer.MAX_VALUE);
+            worstVol = Math.max(worstVol, Math.abs(iv.impvol - c[1]));
+        }
+        if (worst <= 5 && worstVol < 1e-4) {
+            System.out.printf("✓ Deep ITM American puts inverted in at most %d evaluations%n", worst);
+        } else {
+            System.out.printf("❌ Failed: deep ITM American puts took %d evaluations, vol error %.2e%n",
+                             worst, worstVol);
+        }
+
+        // Below the zero-volatility price there is no solution
+        MarketData tooCheap = new MarketData(25.0, S, r, 0.2, 0.0);
+        Output none = Library.impvol(new VanillaOption(130.0, false, true, T), tooCheap, 50, 100, 0.0001, null);
+        if (!none.converged) {
+            System.out.println("✓ Unattainable price reported as not converged");
+        } else {
+            System.out.println("❌ Failed: Should not converge below intrinsic value");
+        }
+
+        // A European subclass with exercise dates is inverted on the lattice, not in closed form
+        VanillaOption dated = new VanillaOption(100.0, false, false, T) {
+            @Override
+            public boolean exercisable(double t) {
+                return t >= 0.25;
+            }
+        };
+        MarketData datedQuote = new MarketData(Library.binom(dated, new MarketData(10.0, S, r, 0.3, 0.0), 50).FV,
+                                               S, r, 0.2, 0.0);
+        Output datedIv = Library.impvol(dated, datedQuote, 50, 100, 1e-8, null);
+        if (datedIv.converged && datedIv.num_iter > 0 && Math.abs(datedIv.impvol - 0.3) < 1e-6) {
+            System.out.printf("✓ Customised European subclass inverted on the lattice (vol %.6f)%n",
+                             datedIv.impvol);
+        } else {
+            System.out.printf("❌ Failed: customised subclass vol %.8f in %d evaluations%n",
+                             datedIv.impvol, datedIv.num_iter);
+        }
+    }
+
+    private static void testLargeLattice() {
+        System.out.println("=== Testing Large Lattice ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        VanillaOption amPut = new VanillaOption(100.0, false, true, 1.0);
+
+        // 10,000 steps needs only a single O(n) vector (~80 KB)
+        Output fine = Library.binom(amPut, mkt, 10000);
+        Output coarse = Library.binom(amPut, mkt, 50);
+        if (Math.abs(fine.FV - coarse.FV) < 0.05) {
+            System.out.printf("✓ 10,000-step American put priced: %.4f%n", fine.FV);
+        } else {
+            System.out.printf("❌ Failed: 10,000-step price %.4f far from 50-step %.4f%n",
+                             fine.FV, coarse.FV);
+        }
+
+        // The rolling vector against a full O(n^2) lattice with Math.pow spots
+        MarketData carry = mkt.withDividendYield(0.02);
+        Derivative[] contracts = {
+            new VanillaOption(95.0, true, false, 1.0),
+            new VanillaOption(105.0, false, false, 1.0),
+            new VanillaOption(110.0, true, true, 1.0),
+            amPut,
+            new BermudanOption(100.0, false, 1.0, 0.25, 0.75)
+        };
+        int[] steps = {1, 2, 7, 50, 201, 500};
+        double maxDiff = 0;
+        for (Derivative contract : contracts) {
+            for (int n : steps) {
+                double reference = referenceBinom(contract, carry, n);
+                maxDiff = Math.max(maxDiff, Math.abs(Library.binom(contract, carry, n).FV - reference));
+            }
+        }
+        if (maxDiff < 1e-12) {
+            System.out.printf("✓ Rolling vector matches the full lattice (max diff %.1e)%n", maxDiff);
+        } else {
+            System.out.printf("❌ Failed: rolling vector differs from the full lattice by %.2e%n", maxDiff);
+        }
+    }
+
+    /** CRR price on a full (n+1) x (n+1) lattice, every spot from Math.pow */
+    private static double referenceBinom(Derivative deriv, MarketData mkt, int n) {
+        double T = deriv.getMaturity() - mkt.t0;
+        double dt = T / n;
+        double u = Math.exp(mkt.sigma * Math.sqrt(dt));
+        double d = 1.0 / u;
+        double p = (Math.exp((mkt.r - mkt.q) * dt) - d) / (u - d);
+        double discount = Math.exp(-mkt.r * dt);
+        double[][] values = new double[n + 1][];
+        values[n] = new double[n + 1];
+        for (int j = 0; j <= n; j++) {
+            values[n][j] = deriv.terminal(mkt.S * Math.pow(u, 2 * j - n));
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            values[i] = new double[i + 1];
+            double t = mkt.t0 + T * i / n;
+            for (int j = 0; j <= i; j++) {
+                double continuation = discount * (p * values[i + 1][j + 1] + (1 - p) * values[i + 1][j]);
+                values[i][j] = deriv.exercisable(t)
+                    ? deriv.exercise(mkt.S * Math.pow(u, 2 * j - i), continuation, t) : continuation;
+            }
+        }
+        return values[0][0];
+    }
+
+    private static void testLegacyCallbacks() {
+        System.out.println("=== Testing Legacy Node Callbacks ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.25, 0.0);
+        final double cap = 12.0;
+
+        // A put capped at 12, written against the Node callbacks only
+        VanillaOption legacy = new VanillaOption(100.0, false, true, 1.0) {
+            @Override
+            public void terminalCondition(Node node) {
+                super.terminalCondition(node);
+                node.optionValue = Math.min(node.optionValue, cap);
+            }
+            @Override
+            public void valuationTest(Node node, double currentTime) {
+                double cont = node.optionValue;
+                node.optionValue = Math.max(cont, Math.min(Math.max(0, 100.0 - node.stockPrice), cap));
+            }
+        };
+        // The same contract on the primitive callbacks
+        Derivative primitive = new Derivative(1.0) {
+            @Override
+            public void terminalCondition(Node node) {
+                node.optionValue = terminal(node.stockPrice);
+            }
+            @Override
+            public void valuationTest(Node node, double currentTime) {
+                node.optionValue = exercise(node.stockPrice, node.optionValue, currentTime);
+            }
+            @Override
+            public double terminal(double S) {
+                return Math.min(Math.max(0, 100.0 - S), cap);
+            }
+            @Override
+            public double exercise(double S, double cont, double t) {
+                return Math.max(cont, Math.min(Math.max(0, 100.0 - S), cap));
+            }
+        };
+        double[][] prices = {
+            {Library.binom(legacy, mkt, 500).FV, Library.binom(primitive, mkt, 500).FV},
+            {Library.binomBatch(Arrays.asList(legacy), mkt, 500).get(0).FV,
+             Library.binomBatch(Arrays.asList(primitive), mkt, 500).get(0).FV},
+            {Library.binom(legacy, mkt, 500, LatticeOptions.bbsr()).FV,
+             Library.binom(primitive, mkt, 500, LatticeOptions.bbsr()).FV},
+            {Library.trinom(legacy, mkt, 300).FV, Library.trinom(primitive, mkt, 300).FV},
+            {Library.pde(legacy, mkt, 200).FV, Library.pde(primitive, mkt, 200).FV}
+        };
+        int mismatches = 0;
+        for (double[] pair : prices) {
+            if (pair[0] != pair[1]) mismatches++;
+        }
+        double plain = Library.binom(new VanillaOption(100.0, false, true, 1.0), mkt, 500).FV;
+        if (mismatches == 0 && prices[0][0] < plain) {
+            System.out.printf("✓ Node-only overrides reach every engine (capped put %.4f, plain %.4f)%n",
+                             prices[0][0], plain);
+        } else {
+            System.out.printf("❌ Failed: %d engines ignore the Node overrides (%.6f vs plain %.6f)%n",
+                             mismatches, prices[0][0], plain);
+        }
+    }
+
+    private static void testBatchPricing() {
+        System.out.println("=== Testing Batch Pricing ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        List<Derivative> ladder = new ArrayList<>();
+        for (double K = 80.0; K <= 120.0; K += 10.0) {
+            ladder.add(new VanillaOption(K, true, false, 1.0));
+            ladder.add(new VanillaOption(K, false, true, 1.0));
+            ladder.add(new BermudanOption(K, false, 1.0, 0.25, 0.75));
+        }
+
+        List<Output> batch = Library.binomBatch(ladder, mkt, 100);
+        double maxDiff = 0;
+        for (int i = 0; i < ladder.size(); i++) {
+            double single = Library.binom(ladder.get(i), mkt, 100).FV;
+            maxDiff = Math.max(maxDiff, Math.abs(batch.get(i).FV - single));
+        }
+        if (maxDiff == 0) {
+            System.out.println("✓ Batch matches single-contract pricing for " + ladder.size() + " contracts");
+        } else {
+            System.out.printf("❌ Failed: batch differs from binom by %.2e%n", maxDiff);
+        }
+
+        try {
+            Library.binomBatch(Arrays.<Derivative>asList(
+                new VanillaOption(100.0, true, false, 1.0),
+                new VanillaOption(100.0, true, false, 0.5)), mkt, 100);
+            System.out.println("❌ Failed: Should have rejected mixed maturities");
+        } catch (IllegalArgumentException e) {
+            System.out.println("✓ Caught mixed maturities: " + e.getMessage());
+        }
+    }
+
+    private static void testBlackScholes() {
+        System.out.println("=== Testing Black-Scholes Fast Path ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        VanillaOption euCall = new VanillaOption(100.0, true, false, 1.0);
+        VanillaOption euPut = new VanillaOption(100.0, false, false, 1.0);
+
+        // Reference values from the Black-Scholes formula
+        Output call = Library.price(euCall, mkt, 50);
+        Output put = Library.price(euPut, mkt, 50);
+        if (Math.abs(call.FV - 10.450584) < 1e-6 && Math.abs(put.FV - 5.573526) < 1e-6) {
+            System.out.printf("✓ Closed-form call %.6f, put %.6f%n", call.FV, put.FV);
+        } else {
+            System.out.printf("❌ Failed: call %.6f, put %.6f%n", call.FV, put.FV);
+        }
+
+        double parity = call.FV - put.FV - (100.0 - 100.0 * Math.exp(-0.05));
+        double lattice = Library.binom(euCall, mkt, 2000).FV;
+        if (Math.abs(parity) < 1e-12 && Math.abs(lattice - call.FV) < 0.005) {
+            System.out.printf("✓ Put-call parity holds; 2000-step lattice within %.4f%n",
+                             Math.abs(lattice - call.FV));
+        } else {
+            System.out.printf("❌ Failed: parity error %.2e, lattice %.6f%n", parity, lattice);
+        }
+
+        if (Math.abs(call.delta - 0.636831) < 1e-6 && Math.abs(call.gamma - 0.018762) < 1e-6
+                && Math.abs(call.vega - 37.524035) < 1e-6) {
+            System.out.printf("✓ Greeks: delta %.4f, gamma %.4f, vega %.4f, theta %.4f%n",
+                             call.delta, call.gamma, call.vega, call.theta);
+        } else {
+            System.out.printf("❌ Failed: delta %.6f, gamma %.6f, vega %.6f%n",
+                             call.delta, call.gamma, call.vega);
+        }
+
+        VanillaOption amPut = new VanillaOption(100.0, false, true, 1.0);
+        if (Library.price(amPut, mkt, 50).FV == Library.binom(amPut, mkt, 50).FV) {
+            System.out.println("✓ American options stay on the lattice");
+        } else {
+            System.out.println("❌ Failed: American option left the lattice");
+        }
+
+        // Subclasses that change the payoff or the exercise rule are not Black-Scholes
+        VanillaOption capped = new VanillaOption(100.0, true, false, 1.0) {
+            @Override
+            public void terminalCondition(Node node) {
+                node.optionValue = Math.min(Math.max(0, node.stockPrice - 100.0), 5.0);
+            }
+        };
+        VanillaOption exercisable = new VanillaOption(100.0, false, false, 1.0) {
+            @Override
+            public boolean exercisable(double t) {
+                return t >= 0.5;
+            }
+        };
+        boolean onLattice = Library.price(capped, mkt, 50).FV == Library.binom(capped, mkt, 50).FV
+                            && Library.price(exercisable, mkt, 50).FV == Library.binom(exercisable, mkt, 50).FV;
+        if (onLattice && !capped.hasClosedForm() && !exercisable.hasClosedForm() && euPut.hasClosedForm()) {
+            System.out.println("✓ Subclasses with their own payoff or exercise rule stay on the lattice");
+        } else {
+            System.out.println("❌ Failed: a customised European subclass was priced in closed form");
+        }
+    }
+
+    private static void testLatticeGreeks() {
+        System.out.println("=== Testing Lattice Greeks ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        VanillaOption euCall = new VanillaOption(100.0, true, false, 1.0);
+
+        Output lattice = Library.binom(euCall, mkt, 1000);
+        Output exact = BlackScholes.price(euCall, mkt);
+        if (Math.abs(lattice.delta - exact.delta) < 1e-3 && Math.abs(lattice.gamma - exact.gamma) < 1e-3
+                && Math.abs(lattice.theta - exact.theta) < 0.01) {
+            System.out.printf("✓ Lattice delta %.4f, gamma %.4f, theta %.4f match closed form%n",
+                             lattice.delta, lattice.gamma, lattice.theta);
+        } else {
+            System.out.printf("❌ Failed: lattice delta %.4f, gamma %.4f, theta %.4f%n",
+                             lattice.delta, lattice.gamma, lattice.theta);
+        }
+
+        VanillaOption amPut = new VanillaOption(100.0, false, true, 1.0);
+        Output put = Library.binom(amPut, mkt, 500);
+        Output batchPut = Library.binomBatch(Arrays.<Derivative>asList(amPut), mkt, 500).get(0);
+        if (put.delta < 0 && put.delta > -1 && put.gamma > 0 && put.delta == batchPut.delta) {
+            System.out.printf("✓ American put delta %.4f, gamma %.4f%n", put.delta, put.gamma);
+        } else {
+            System.out.printf("❌ Failed: American put delta %.4f, gamma %.4f%n", put.delta, put.gamma);
+        }
+    }
+
+    private static void testParallelLattice() {
+        System.out.println("=== Testing Parallel Lattice ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        LatticeOptions options = LatticeOptions.parallel();
+        options.parallelThreshold = 256;
+
+        Derivative[] derivs = {
+            new VanillaOption(100.0, false, true, 1.0),
+            new BermudanOption(90.0, false, 1.0, 0.25, 0.75)
+        };
+        for (Derivative deriv : derivs) {
+            Output serial = Library.binom(deriv, mkt, 3001);
+            Output parallel = Library.binom(deriv, mkt, 3001, options);
+            if (serial.FV == parallel.FV && serial.delta == parallel.delta) {
+                System.out.printf("✓ Parallel matches serial bit-for-bit: %.10f%n", parallel.FV);
+            } else {
+                System.out.printf("❌ Failed: parallel %.12f vs serial %.12f%n", parallel.FV, serial.FV);
+            }
+        }
+    }
+
+    private static void testPortfolioPricer() {
+        System.out.println("=== Testing Portfolio Pricer ===");
+        List<PortfolioPricer.Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            double spot = 80.0 + (i % 41);
+            MarketData mkt = new MarketData(10.0, spot, 0.03, 0.15 + 0.01 * (i % 20), 0.0);
+            double strike = 100.0;
+            Derivative deriv;
+            switch (i % 3) {
+                case 0: deriv = new VanillaOption(strike, i % 2 == 0, false, 0.5); break;
+                case 1: deriv = new VanillaOption(strike, false, true, 1.0); break;
+                default: deriv = new BermudanOption(strike, true, 1.0, 0.2, 0.6); break;
+            }
+            jobs.add(new PortfolioPricer.Job(deriv, mkt, 50 + 10 * (i % 7)));
+        }
+
+        List<Output> results = new PortfolioPricer().priceAll(jobs);
+        boolean inOrder = results.size() == jobs.size();
+        for (int i = 0; inOrder && i < jobs.size(); i++) {
+            PortfolioPricer.Job job = jobs.get(i);
+            inOrder = results.get(i).FV == Library.price(job.deriv, job.mkt, job.steps).FV;
+        }
+        if (inOrder) {
+            System.out.println("✓ " + jobs.size() + " contracts priced in input order");
+        } else {
+            System.out.println("❌ Failed: portfolio results differ from single-contract pricing");
+        }
+
+        // One shared instrument under many vol scenarios at once
+        VanillaOption shared = new VanillaOption(100.0, false, true, 1.0);
+        MarketData base = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        List<PortfolioPricer.Job> scenarios = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            scenarios.add(new PortfolioPricer.Job(shared, base.withSigma(0.1 + 0.002 * i), 200));
+        }
+        List<Output> scenarioResults = new PortfolioPricer().priceAll(scenarios);
+        boolean consistent = true;
+        for (int i = 0; i < scenarios.size(); i++) {
+            consistent &= scenarioResults.get(i).FV == Library.binom(shared, scenarios.get(i).mkt, 200).FV;
+        }
+        if (consistent) {
+            System.out.println("✓ Shared instrument priced under 200 concurrent scenarios");
+        } else {
+            System.out.println("❌ Failed: concurrent scenarios disagree with serial pricing");
+        }
+    }
+
+    private static void testRichardson() {
+        System.out.println("=== Testing Richardson and BBS Modes ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        VanillaOption euCall = new VanillaOption(100.0, true, false, 1.0);
+        double exact = BlackScholes.price(euCall, mkt).FV;
+
+        double plainError = Math.abs(Library.binom(euCall, mkt, 2000).FV - exact);
+        double richError = Math.abs(Library.binom(euCall, mkt, 200, LatticeOptions.richardson()).FV - exact);
+        if (richError < plainError) {
+            System.out.printf("✓ Richardson at 200 steps (error %.1e) beats plain 2000 steps (%.1e)%n",
+                             richError, plainError);
+        } else {
+            System.out.printf("❌ Failed: Richardson error %.2e vs plain %.2e%n", richError, plainError);
+        }
+
+        // BBSR on an American put: 100 steps against a 10,000-step CRR reference
+        VanillaOption amPut = new VanillaOption(100.0, false, true, 1.0);
+        double reference = 0.5 * (Library.binom(amPut, mkt, 10000).FV + Library.binom(amPut, mkt, 10001).FV);
+        double bbsrError = Math.abs(Library.binom(amPut, mkt, 100, LatticeOptions.bbsr()).FV - reference);
+        double crrError = Math.abs(Library.binom(amPut, mkt, 1000).FV - reference);
+        if (bbsrError < crrError) {
+            System.out.printf("✓ BBSR at 100 steps (error %.1e) beats CRR at 1000 steps (%.1e)%n",
+                             bbsrError, crrError);
+        } else {
+            System.out.printf("❌ Failed: BBSR error %.2e vs CRR %.2e%n", bbsrError, crrError);
+        }
+
+        // BBS seeds slice n-1, so Greeks need n >= 3; shorter lattices leave them at zero
+        LatticeOptions bbs = new LatticeOptions();
+        bbs.bbs = true;
+        boolean shortZero = true;
+        for (int n = 1; n <= 2; n++) {
+            Output out = Library.binom(amPut, mkt, n, bbs);
+            shortZero &= out.delta == 0 && out.gamma == 0 && out.theta == 0;
+        }
+        Output three = Library.binom(amPut, mkt, 3, bbs);
+        boolean threeSane = three.delta < 0 && three.delta > -1 && three.gamma > 0 && three.theta < 0;
+        // BBSR takes the fine lattice's Greeks when the coarse one has none, never extrapolating from zeros
+        Output one = Library.binom(amPut, mkt, 1, LatticeOptions.bbsr());
+        Output two = Library.binom(amPut, mkt, 2, LatticeOptions.bbsr());
+        Output four = Library.binom(amPut, mkt, 4, bbs);
+        boolean bbsrSane = one.delta == 0 && one.gamma == 0 && one.theta == 0
+                           && two.delta == four.delta && two.gamma == four.gamma && two.theta == four.theta;
+        if (shortZero && threeSane && bbsrSane) {
+            System.out.printf("✓ BBS Greeks only from induced slices (n=3: delta %.3f, gamma %.4f, theta %.2f)%n",
+                              three.delta, three.gamma, three.theta);
+        } else {
+            System.out.printf("❌ Failed: BBS short-lattice Greeks (n=3: delta %.3f, gamma %.4f, theta %.2f)%n",
+                              three.delta, three.gamma, three.theta);
+        }
+
+        // Leisen-Reimer extrapolates its 1/n^2 error on odd steps: 101 and 203
+        VanillaOption otmCall = new VanillaOption(105.0, true, false, 1.0);
+        double otmExact = BlackScholes.price(otmCall, mkt).FV;
+        LatticeOptions lrRichardson = LatticeOptions.model(LatticeModel.LEISEN_REIMER);
+        lrRichardson.richardson = true;
+        double lrError = Math.abs(Library.binom(otmCall, mkt, 203,
+                                                LatticeOptions.model(LatticeModel.LEISEN_REIMER)).FV - otmExact);
+        double lrrError = Math.abs(Library.binom(otmCall, mkt, 101, lrRichardson).FV - otmExact);
+        if (lrrError < lrError / 10) {
+            System.out.printf("✓ Leisen-Reimer with Richardson: error %.1e against %.1e at 203 steps%n",
+                              lrrError, lrError);
+        } else {
+            System.out.printf("❌ Failed: Leisen-Reimer Richardson error %.2e vs %.2e%n", lrrError, lrError);
+        }
+
+        // Models without a matching error expansion are rejected
+        LatticeOptions jrRichardson = LatticeOptions.model(LatticeModel.JARROW_RUDD);
+        jrRichardson.richardson = true;
+        try {
+            Library.binom(otmCall, mkt, 100, jrRichardson);
+            System.out.println("❌ Failed: Should have rejected Richardson on Jarrow-Rudd");
+        } catch (IllegalArgumentException e) {
+            System.out.println("✓ Caught Richardson on Jarrow-Rudd: " + e.getMessage());
+        }
+    }
+
+    private static void testLatticeModels() {
+        System.out.println("=== Testing Lattice Parameterisations ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        VanillaOption euCall = new VanillaOption(105.0, true, false, 1.0);
+        double exact = BlackScholes.price(euCall, mkt).FV;
+
+        // Every model should converge to the Black-Scholes price
+        LatticeModel[] models = {LatticeModel.CRR, LatticeModel.JARROW_RUDD,
+                                 LatticeModel.TIAN, LatticeModel.LEISEN_REIMER};
+        String[] names = {"CRR", "Jarrow-Rudd", "Tian", "Leisen-Reimer"};
+        for (int m = 0; m < models.length; m++) {
+            double error = Math.abs(Library.binom(euCall, mkt, 2001, LatticeOptions.model(models[m])).FV - exact);
+            if (error < 5e-3) {
+                System.out.printf("✓ %s converges (error %.1e at 2001 steps)%n", names[m], error);
+            } else {
+                System.out.printf("❌ Failed: %s error %.2e at 2001 steps%n", names[m], error);
+            }
+        }
+
+        // Leisen-Reimer at 101 steps should beat CRR at 1001 steps
+        double lrError = Math.abs(Library.binom(euCall, mkt, 101,
+                                  LatticeOptions.model(LatticeModel.LEISEN_REIMER)).FV - exact);
+        double crrError = Math.abs(Library.binom(euCall, mkt, 1001).FV - exact);
+        if (lrError < crrError) {
+            System.out.printf("✓ Leisen-Reimer at 101 steps (error %.1e) beats CRR at 1001 steps (%.1e)%n",
+                             lrError, crrError);
+        } else {
+            System.out.printf("❌ Failed: Leisen-Reimer error %.2e vs CRR %.2e%n", lrError, crrError);
+        }
+
+        // Drifting models still put the root at the spot, so delta must agree
+        Output lr = Library.binom(euCall, mkt, 501, LatticeOptions.model(LatticeModel.LEISEN_REIMER));
+        double deltaError = Math.abs(lr.delta - BlackScholes.price(euCall, mkt).delta);
+        if (deltaError < 1e-3) {
+            System.out.printf("✓ Leisen-Reimer delta matches Black-Scholes (error %.1e)%n", deltaError);
+        } else {
+            System.out.printf("❌ Failed: Leisen-Reimer delta error %.2e%n", deltaError);
+        }
+    }
+
+    private static void testTrinomial() {
+        System.out.println("=== Testing Trinomial Lattice ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+
+        // European call against the closed form, Greeks included
+        VanillaOption euCall = new VanillaOption(105.0, true, false, 1.0);
+        Output exact = BlackScholes.price(euCall, mkt);
+        Output tri = Library.trinom(euCall, mkt, 1000);
+        if (Math.abs(tri.FV - exact.FV) < 2e-3 && Math.abs(tri.delta - exact.delta) < 1e-3
+                && Math.abs(tri.gamma - exact.gamma) < 1e-4) {
+            System.out.printf("✓ European call %.4f (Black-Scholes %.4f), delta %.4f%n",
+                             tri.FV, exact.FV, tri.delta);
+        } else {
+            System.out.printf("❌ Failed: trinomial %.6f delta %.6f gamma %.6f vs %.6f %.6f %.6f%n",
+                             tri.FV, tri.delta, tri.gamma, exact.FV, exact.delta, exact.gamma);
+        }
+
+        // American and Bermudan puts against a fine binomial reference
+        Derivative[] contracts = {
+            new VanillaOption(100.0, false, true, 1.0),
+            new BermudanOption(100.0, false, 1.0, 0.25, 0.75)
+        };
+        String[] names = {"American put", "Bermudan put"};
+        for (int c = 0; c < contracts.length; c++) {
+            double reference = 0.5 * (Library.binom(contracts[c], mkt, 10000).FV
+                                      + Library.binom(contracts[c], mkt, 10001).FV);
+            double price = Library.trinom(contracts[c], mkt, 1000).FV;
+            if (Math.abs(price - reference) < 2e-3) {
+                System.out.printf("✓ %s %.4f matches binomial reference %.4f%n", names[c], price, reference);
+            } else {
+                System.out.printf("❌ Failed: %s trinomial %.6f vs reference %.6f%n",
+                                 names[c], price, reference);
+            }
+        }
+
+        // Fugit: maturity for a European, the binomial's expected exercise time for an American
+        VanillaOption amPut = (VanillaOption) contracts[0];
+        double triFugit = Library.trinom(amPut, mkt, 1000).fugit;
+        double binomFugit = Library.binom(amPut, mkt, 2000).fugit;
+        if (tri.fugit == 1.0 && triFugit < 1.0 && Math.abs(triFugit - binomFugit) < 0.01) {
+            System.out.printf("✓ American put fugit %.4f (binomial %.4f)%n", triFugit, binomFugit);
+        } else {
+            System.out.printf("❌ Failed: trinomial fugit %.6f / %.6f vs binomial %.6f%n",
+                             tri.fugit, triFugit, binomFugit);
+        }
+
+        // Too few steps for the carry: the forward escapes the half-step range
+        MarketData lowVol = new MarketData(10.0, 100.0, 0.05, 0.01, 0.0);
+        try {
+            Library.trinom(amPut, lowVol, 1);
+            System.out.println("❌ Failed: Should have rejected a negative trinomial probability");
+        } catch (IllegalArgumentException e) {
+            System.out.println("✓ Caught negative trinomial probability: " + e.getMessage());
+        }
+    }
+
+    private static void testFiniteDifference() {
+        System.out.println("=== Testing Crank-Nicolson Engine ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+
+        // European call and put against the closed form, Greeks from the grid
+        VanillaOption[] europeans = {
+            new VanillaOption(105.0, true, false, 1.0),
+            new VanillaOption(95.0, false, false, 1.0)
+        };
+        for (VanillaOption option : europeans) {
+            Output exact = BlackScholes.price(option, mkt);
+            Output pde = Library.pde(option, mkt, 500);
+            if (Math.abs(pde.FV - exact.FV) < 1e-4 && Math.abs(pde.delta - exact.delta) < 1e-5
+                    && Math.abs(pde.gamma - exact.gamma) < 1e-6) {
+                System.out.printf("✓ European %s %.4f (Black-Scholes %.4f), delta %.4f%n",
+                                 option.isCall() ? "call" : "put", pde.FV, exact.FV, pde.delta);
+            } else {
+                System.out.printf("❌ Failed: PDE %.6f delta %.6f gamma %.7f vs %.6f %.6f %.7f%n",
+                                 pde.FV, pde.delta, pde.gamma, exact.FV, exact.delta, exact.gamma);
+            }
+        }
+
+        // American and Bermudan puts against a fine binomial reference
+        Derivative[] contracts = {
+            new VanillaOption(100.0, false, true, 1.0),
+            new BermudanOption(100.0, false, 1.0, 0.25, 0.75)
+        };
+        String[] names = {"American put", "Bermudan put"};
+        for (int c = 0; c < contracts.length; c++) {
+            double reference = 0.5 * (Library.binom(contracts[c], mkt, 10000).FV
+                                      + Library.binom(contracts[c], mkt, 10001).FV);
+            double price = Library.pde(contracts[c], mkt, 500).FV;
+            if (Math.abs(price - reference) < 1e-3) {
+                System.out.printf("✓ %s %.4f matches binomial reference %.4f%n", names[c], price, reference);
+            } else {
+                System.out.printf("❌ Failed: %s PDE %.6f vs reference %.6f%n", names[c], price, reference);
+            }
+        }
+
+        // An American call on a non-dividend stock is worth the European price
+        VanillaOption amCall = new VanillaOption(100.0, true, true, 1.0);
+        double gap = Math.abs(Library.pde(amCall, mkt, 500).FV - BlackScholes.price(100.0, 100.0, 0.05, 0.2, 1.0, true));
+        if (gap < 1e-3) {
+            System.out.printf("✓ American call equals European call (gap %.1e)%n", gap);
+        } else {
+            System.out.printf("❌ Failed: American call differs from European by %.2e%n", gap);
+        }
+    }
+
+    private static void testMonteCarlo() {
+        System.out.println("=== Testing Longstaff-Schwartz Monte Carlo ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        MonteCarloOptions options = new MonteCarloOptions();
+        options.paths = 40000;
+
+        // Plain estimator on a European put must bracket Black-Scholes
+        VanillaOption euPut = new VanillaOption(100.0, false, false, 1.0);
+        MonteCarloOptions plain = new MonteCarloOptions();
+        plain.paths = 40000;
+        plain.antithetic = false;
+        plain.controlVariate = false;
+        Output european = Library.lsm(euPut, mkt, plain);
+        double exact = BlackScholes.price(euPut, mkt).FV;
+        if (Math.abs(european.FV - exact) < 4 * european.std_error) {
+            System.out.printf("✓ European put %.4f ± %.4f (Black-Scholes %.4f)%n",
+                             european.FV, european.std_error, exact);
+        } else {
+            System.out.printf("❌ Failed: European put %.6f ± %.6f vs %.6f%n",
+                             european.FV, european.std_error, exact);
+        }
+
+        // American and Bermudan puts against the lattice; LSM is biased low by
+        // its 50 exercise dates and in-sample regression, hence the allowance
+        Derivative[] contracts = {
+            new VanillaOption(100.0, false, true, 1.0),
+            new BermudanOption(100.0, false, 1.0, 0.25, 0.75)
+        };
+        String[] names = {"American put", "Bermudan put"};
+        for (int c = 0; c < contracts.length; c++) {
+            double reference = Library.binom(contracts[c], mkt, 2000).FV;
+            Output lsm = Library.lsm(contracts[c], mkt, options);
+            if (Math.abs(lsm.FV - reference) < 0.03 + 3 * lsm.std_error) {
+                System.out.printf("✓ %s %.4f ± %.4f (lattice %.4f)%n", names[c], lsm.FV, lsm.std_error, reference);
+            } else {
+                System.out.printf("❌ Failed: %s LSM %.6f ± %.6f vs lattice %.6f%n",
+                                 names[c], lsm.FV, lsm.std_error, reference);
+            }
+        }
+
+        // Variance reduction must shrink the standard error
+        VanillaOption amPut = new VanillaOption(100.0, false, true, 1.0);
+        double plainError = Library.lsm(amPut, mkt, plain).std_error;
+        double reducedError = Library.lsm(amPut, mkt, options).std_error;
+        if (reducedError < plainError) {
+            System.out.printf("✓ Antithetic + control variate cut std error %.4f -> %.4f%n",
+                             plainError, reducedError);
+        } else {
+            System.out.printf("❌ Failed: std error %.6f with reduction vs %.6f without%n",
+                             reducedError, plainError);
+        }
+
+        // Per-chunk random streams make parallel and serial runs identical
+        MonteCarloOptions serial = new MonteCarloOptions();
+        serial.paths = options.paths;
+        serial.parallel = false;
+        double parallelPrice = Library.lsm(amPut, mkt, options).FV;
+        double serialPrice = Library.lsm(amPut, mkt, serial).FV;
+        if (parallelPrice == serialPrice) {
+            System.out.println("✓ Parallel path generation reproduces the serial price");
+        } else {
+            System.out.printf("❌ Failed: parallel %.10f vs serial %.10f%n", parallelPrice, serialPrice);
+        }
+    }
+
+    private static void testExerciseBoundary() {
+        System.out.println("=== Testing Exercise Boundary and Fugit ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        int n = 200;
+        LatticeOptions options = new LatticeOptions();
+        options.exerciseBoundary = true;
+
+        // European options are never exercised early
+        Output european = Library.binom(new VanillaOption(100.0, false, false, 1.0), mkt, n);
+        if (european.fugit == 1.0) {
+            System.out.println("✓ European fugit equals maturity");
+        } else {
+            System.out.printf("❌ Failed: European fugit %.6f%n", european.fugit);
+        }
+
+        // Deep in-the-money American puts are exercised at once
+        Output deep = Library.binom(new VanillaOption(150.0, false, true, 1.0), mkt, n);
+        if (deep.fugit == 0.0) {
+            System.out.println("✓ Deep ITM American put is exercised immediately");
+        } else {
+            System.out.printf("❌ Failed: deep ITM fugit %.6f%n", deep.fugit);
+        }
+
+        // Put boundary: below the strike and rising towards maturity. Odd and
+        // even slices sit on different spot grids, so each is checked alone
+        VanillaOption amPut = new VanillaOption(100.0, false, true, 1.0);
+        Output result = Library.binom(amPut, mkt, n, options);
+        double[] boundary = result.exercise_boundary;
+        boolean monotone = boundary.length == n + 1 && Double.isNaN(boundary[n]);
+        double[] previous = new double[2];
+        for (int i = 0; i < n; i++) {
+            if (Double.isNaN(boundary[i])) continue;
+            monotone &= boundary[i] >= previous[i % 2] && boundary[i] < 100.0;
+            previous[i % 2] = boundary[i];
+        }
+        if (monotone && boundary[n - 1] > 95.0) {
+            System.out.printf("✓ Put boundary rises to %.2f one step before maturity%n", boundary[n - 1]);
+        } else {
+            System.out.println("❌ Failed: put exercise boundary is not monotone below the strike");
+        }
+
+        // Fugit must match forward propagation of risk-neutral probabilities
+        // through the boundary, absorbing mass wherever the put is exercised
+        double dt = 1.0 / n;
+        double u = Math.exp(mkt.sigma * Math.sqrt(dt));
+        double p = (Math.exp(mkt.r * dt) - 1 / u) / (u - 1 / u);
+        double[] mass = {1.0};
+        double expected = 0;
+        for (int i = 0; i <= n; i++) {
+            double[] next = new double[i + 2];
+            for (int j = 0; j <= i; j++) {
+                double spot = 100.0 * Math.pow(u, 2 * j - i);
+                if (i < n && spot <= boundary[i] * (1 + 1e-12)) {
+                    expected += mass[j] * i * dt;
+                } else if (i == n) {
+                    expected += mass[j] * 1.0;
+                } else {
+                    next[j] += (1 - p) * mass[j];
+                    next[j + 1] += p * mass[j];
+                }
+            }
+            mass = next;
+        }
+        if (Math.abs(expected - result.fugit) < 1e-9 && result.fugit > 0 && result.fugit < 1.0) {
+            System.out.printf("✓ Fugit %.4f matches forward propagation (%.4f)%n", result.fugit, expected);
+        } else {
+            System.out.printf("❌ Failed: fugit %.8f vs forward propagation %.8f%n", result.fugit, expected);
+        }
+
+        // The parallel engine rolls the exercise times back too
+        LatticeOptions parallel = LatticeOptions.parallel();
+        parallel.parallelThreshold = 256;
+        double serialFugit = Library.binom(amPut, mkt, 3000).fugit;
+        double parallelFugit = Library.binom(amPut, mkt, 3000, parallel).fugit;
+        if (serialFugit == parallelFugit) {
+            System.out.printf("✓ Parallel fugit identical to serial (%.4f)%n", parallelFugit);
+        } else {
+            System.out.printf("❌ Failed: parallel fugit %.10f vs serial %.10f%n", parallelFugit, serialFugit);
+        }
+    }
+
+    private static void testExerciseScan() {
+        System.out.println("=== Testing One-Sided Exercise Scan ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        int n = 500;
+        VanillaOption[] contracts = {
+            new VanillaOption(100.0, false, true, 1.0),
+            new VanillaOption(80.0, false, true, 1.0),
+            new VanillaOption(100.0, true, true, 1.0),
+            new BermudanOption(100.0, false, 1.0, 0.25, 0.75)
+        };
+        String[] names = {"ATM put", "OTM put", "ATM call", "Bermudan put"};
+
+        // The same payoffs without a declared side test every node
+        for (int k = 0; k < contracts.length; k++) {
+            final VanillaOption contract = contracts[k];
+            Derivative everywhere = new Derivative(contract.getMaturity()) {
+                @Override
+                public void terminalCondition(Node node) {
+                    contract.terminalCondition(node);
+                }
+                @Override
+                public void valuationTest(Node node, double currentTime) {
+                    contract.valuationTest(node, currentTime);
+                }
+                @Override
+                public double terminal(double S) {
+                    return contract.terminal(S);
+                }
+                @Override
+                public double exercise(double S, double cont, double t) {
+                    return contract.exercise(S, cont, t);
+                }
+            };
+            Output scanned = Library.binom(contract, mkt, n);
+            Output full = Library.binom(everywhere, mkt, n);
+            if (scanned.FV == full.FV && scanned.fugit == full.fugit && scanned.delta == full.delta) {
+                System.out.printf("✓ %s: scan matches full check (%.6f, fugit %.4f)%n",
+                                  names[k], scanned.FV, scanned.fugit);
+            } else {
+                System.out.printf("❌ Failed: %s scan %.12f vs full check %.12f%n",
+                                  names[k], scanned.FV, full.FV);
+            }
+        }
+    }
+
+    private static void testExerciseSchedule() {
+        System.out.println("=== Testing Exercise Schedule ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+
+        // Window edges on a slice count at every step count: widening the
+        // window by half a step must not change which slices exercise
+        int mismatches = 0;
+        for (int n = 4; n <= 400; n += 4) {
+            double halfStep = 0.5 / n;
+            Output exact = Library.binom(new BermudanOption(100.0, false, 1.0, 0.25, 0.75), mkt, n);
+            Output widened = Library.binom(
+                new BermudanOption(100.0, false, 1.0, 0.25 - halfStep, 0.75 + halfStep), mkt, n);
+            if (exact.FV != widened.FV) mismatches++;
+        }
+        if (mismatches == 0) {
+            System.out.println("✓ Bermudan window edges land on their slices for every n");
+        } else {
+            System.out.printf("❌ Failed: %d step counts miss a window edge%n", mismatches);
+        }
+
+        // The exercise callback is only reached on exercisable slices
+        final int[] outside = new int[1];
+        BermudanOption counted = new BermudanOption(100.0, false, 1.0, 0.25, 0.75) {
+            @Override
+            public double exercise(double S, double cont, double t) {
+                if (!exercisable(t)) outside[0]++;
+                return super.exercise(S, cont, t);
+            }
+        };
+        VanillaOption european = new VanillaOption(100.0, false, false, 1.0) {
+            @Override
+            public double exercise(double S, double cont, double t) {
+                outside[0]++;
+                return cont;
+            }
+        };
+        Library.binom(counted, mkt, 500);
+        Library.binom(european, mkt, 500);
+        Library.trinom(counted, mkt, 200);
+        Library.pde(european, mkt, 200);
+        if (outside[0] == 0) {
+            System.out.println("✓ No exercise callbacks outside the exercise schedule");
+        } else {
+            System.out.printf("❌ Failed: %d exercise callbacks outside the schedule%n", outside[0]);
+        }
+
+        // Windows are on the contract's clock: half a year on, the same
+        // contract shifted by t0 prices as it did from zero
+        MarketData later = new MarketData(10.0, 100.0, 0.05, 0.2, 0.5);
+        BermudanOption shifted = new BermudanOption(100.0, false, 1.5, 1.2, 1.5);
+        BermudanOption unshifted = new BermudanOption(100.0, false, 1.0, 0.7, 1.0);
+        MonteCarloOptions paths = new MonteCarloOptions();
+        paths.paths = 20000;
+        double[] gaps = {
+            Math.abs(Library.binom(shifted, later, 400).FV - Library.binom(unshifted, mkt, 400).FV),
+            Math.abs(Library.binom(shifted, later, 400, LatticeOptions.parallel()).FV
+                     - Library.binom(unshifted, mkt, 400).FV),
+            Math.abs(Library.trinom(shifted, later, 400).FV - Library.trinom(unshifted, mkt, 400).FV),
+            Math.abs(Library.pde(shifted, later, 400).FV - Library.pde(unshifted, mkt, 400).FV),
+            Math.abs(Library.lsm(shifted, later, paths).FV - Library.lsm(unshifted, mkt, paths).FV)
+        };
+        double europeanPut = BlackScholes.price(new VanillaOption(100.0, false, false, 1.5), later).FV;
+        double shiftedPrice = Library.binom(shifted, later, 400).FV;
+        double worstGap = 0;
+        for (double gap : gaps) worstGap = Math.max(worstGap, gap);
+        if (worstGap < 1e-6 && shiftedPrice > europeanPut + 0.01) {
+            System.out.printf("✓ Exercise windows on the absolute clock with t0 > 0 (%.4f vs European %.4f)%n",
+                             shiftedPrice, europeanPut);
+        } else {
+            System.out.printf("❌ Failed: t0 > 0 windows off by %.2e (%.5f vs European %.5f)%n",
+                             worstGap, shiftedPrice, europeanPut);
+        }
+    }
+
+    private static void testVectorKernel() {
+        boolean available = SliceKernel.VECTOR != SliceKernel.SCALAR;
+        System.out.println("=== Testing Vector Kernel (" + (available ? "Vector API" : "scalar fallback") + ") ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        Derivative[] contracts = {
+            new VanillaOption(100.0, false, false, 1.0),
+            new VanillaOption(100.0, false, true, 1.0),
+            new VanillaOption(100.0, true, true, 1.0),
+            new BermudanOption(100.0, false, 1.0, 0.25, 0.75)
+        };
+        LatticeOptions vector = LatticeOptions.vector();
+
+        // Same operations in the same order, so any lane width and any tail
+        // length must reproduce the scalar engine bit for bit
+        int mismatches = 0;
+        for (Derivative contract : contracts) {
+            for (int n : new int[]{1, 2, 3, 7, 16, 17, 501, 2000}) {
+                Output scalar = Library.binom(contract, mkt, n);
+                Output lanes = Library.binom(contract, mkt, n, vector);
+                if (scalar.FV != lanes.FV || scalar.fugit != lanes.fugit || scalar.delta != lanes.delta
+                    || scalar.gamma != lanes.gamma || scalar.theta != lanes.theta) mismatches++;
+            }
+        }
+        if (mismatches == 0) {
+            System.out.println("✓ Vector kernel identical to scalar for all contracts and step counts");
+        } else {
+            System.out.printf("❌ Failed: %d vector results differ from scalar%n", mismatches);
+        }
+    }
+
+    private static void testDividends() {
+        System.out.println("=== Testing Dividends ===");
+        MarketData base = new MarketData(10.0, 100.0, 0.05, 0.25, 0.0);
+        VanillaOption euCall = new VanillaOption(100.0, true, false, 1.0);
+        VanillaOption euPut = new VanillaOption(100.0, false, false, 1.0);
+        VanillaOption amCall = new VanillaOption(100.0, true, true, 1.0);
+
+        // Zero carry reproduces the plain snapshot exactly
+        Output plain = Library.binom(amCall, base, 500);
+        Output zero = Library.binom(amCall, base.withDividendYield(0.0).withDividend(1.5, 5.0), 500);
+        if (plain.FV == zero.FV && plain.delta == zero.delta) {
+            System.out.println("✓ Zero yield and dividends after maturity change nothing");
+        } else {
+            System.out.printf("❌ Failed: %.12f vs %.12f%n", zero.FV, plain.FV);
+        }
+
+        // Continuous yield: Black-Scholes on the spot discounted at q
+        MarketData yield = base.withDividendYield(0.03);
+        double expected = BlackScholes.price(100.0 * Math.exp(-0.03), 100.0, 0.05, 0.25, 1.0, true);
+        double error = Math.abs(Library.binom(euCall, yield, 2000).FV - expected);
+        if (error < 2e-3) {
+            System.out.printf("✓ Dividend yield European call matches Black-Scholes (error %.1e)%n", error);
+        } else {
+            System.out.printf("❌ Failed: dividend yield error %.2e%n", error);
+        }
+
+        // Cash dividend: Black-Scholes on the spot less the escrowed dividend
+        MarketData cash = base.withDividend(0.5, 3.0);
+        expected = BlackScholes.price(100.0 - 3.0 * Math.exp(-0.05 * 0.5), 100.0, 0.05, 0.25, 1.0, true);
+        error = Math.abs(Library.binom(euCall, cash, 2000).FV - expected);
+        if (error < 2e-3) {
+            System.out.printf("✓ Cash dividend European call matches escrowed Black-Scholes (error %.1e)%n", error);
+        } else {
+            System.out.printf("❌ Failed: cash dividend error %.2e%n", error);
+        }
+
+        // The lattice is a martingale for the prepaid forward, so parity is exact
+        MarketData both = base.withDividendYield(0.02).withDividend(0.3, 1.5).withDividend(0.8, 1.5);
+        double parity = Library.binom(euCall, both, 1000).FV - Library.binom(euPut, both, 1000).FV
+                        - (both.prepaidForward(1.0) - 100.0 * Math.exp(-0.05));
+        if (Math.abs(parity) < 1e-9) {
+            System.out.printf("✓ Put-call parity holds with yield and cash dividends (%.1e)%n", parity);
+        } else {
+            System.out.printf("❌ Failed: put-call parity gap %.2e%n", parity);
+        }
+
+        // A dividend makes early exercise of a call worthwhile; engines agree
+        Output lattice = Library.binom(amCall, cash, 2000);
+        double european = Library.binom(euCall, cash, 2000).FV;
+        double pde = Library.pde(amCall, cash, 1000).FV;
+        if (lattice.FV > european + 1e-3 && Math.abs(lattice.FV - pde) < 5e-3 && lattice.fugit < 1.0) {
+            System.out.printf("✓ American call early-exercise premium %.4f before the dividend (PDE gap %.1e)%n",
+                              lattice.FV - european, Math.abs(lattice.FV - pde));
+        } else {
+            System.out.printf("❌ Failed: American call %.5f, European %.5f, PDE %.5f%n", lattice.FV, european, pde);
+        }
+
+        try {
+            Library.binom(amCall, base.withDividend(0.5, 150.0), 100);
+            System.out.println("❌ Failed: dividends above the spot were accepted");
+        } catch (IllegalArgumentException e) {
+            System.out.println("✓ Dividends above the spot rejected");
+        }
+    }
+
+    private static void testTermStructure() {
+        System.out.println("=== Testing Term Structure ===");
+        MarketData base = new MarketData(10.0, 100.0, 0.05, 0.25, 0.0);
+        VanillaOption amPut = new VanillaOption(100.0, false, true, 1.0);
+        double[] pillars = {0.25, 0.5, 1.0, 2.0};
+
+        // Flat curves reproduce the flat snapshot
+        MarketData flat = base.withDiscountCurve(new DiscountCurve(pillars, new double[]{0.05, 0.05, 0.05, 0.05}))
+                              .withVolCurve(new VolCurve(pillars, new double[]{0.25, 0.25, 0.25, 0.25}));
+        double gap = Math.abs(Library.binom(amPut, flat, 500).FV - Library.binom(amPut, base, 500).FV);
+        if (gap < 1e-10) {
+            System.out.printf("✓ Flat curves match the flat snapshot (%.1e)%n", gap);
+        } else {
+            System.out.printf("❌ Failed: flat curves differ by %.2e%n", gap);
+        }
+
+        // A rate curve alone keeps uniform slices, so exercise windows land on the same slices
+        BermudanOption bermudan = new BermudanOption(100.0, false, 1.0, 0.25, 0.75);
+        MarketData rateCurve = base.withDiscountCurve(new DiscountCurve(pillars, new double[]{0.05, 0.05, 0.05, 0.05}));
+        gap = 0;
+        for (int n = 4; n <= 400; n += 4) {
+            gap = Math.max(gap, Math.abs(Library.binom(bermudan, rateCurve, n).FV - Library.binom(bermudan, base, n).FV));
+        }
+        if (gap < 1e-10) {
+            System.out.printf("✓ Bermudan windows unchanged by a flat rate curve (%.1e)%n", gap);
+        } else {
+            System.out.printf("❌ Failed: Bermudan on a flat rate curve differs by %.2e%n", gap);
+        }
+
+        // Europeans on the curves price like Black-Scholes at the term rate and vol
+        MarketData curved = base.withDiscountCurve(new DiscountCurve(pillars, new double[]{0.02, 0.03, 0.045, 0.05}))
+                                .withVolCurve(new VolCurve(pillars, new double[]{0.35, 0.3, 0.25, 0.22}));
+        double worst = 0;
+        for (double T : new double[]{0.1, 0.4, 1.0, 1.5, 3.0}) {
+            VanillaOption call = new VanillaOption(100.0, true, false, T);
+            worst = Math.max(worst, Math.abs(Library.binom(call, curved, 2000).FV
+                                             - BlackScholes.price(call, curved.flat(T)).FV));
+        }
+        if (worst < 3e-3) {
+            System.out.printf("✓ European calls on the curves match Black-Scholes across expiries (error %.1e)%n", worst);
+        } else {
+            System.out.printf("❌ Failed: European error %.2e on the curves%n", worst);
+        }
+
+        // Closed-form theta on the curves follows the rate and vol at t0, as the lattice does
+        VanillaOption euCall = new VanillaOption(100.0, true, false, 1.0);
+        double closed = Library.price(euCall, curved, 100).theta;
+        double lattice = Library.binom(euCall, curved, 4000).theta;
+        if (Math.abs(closed - lattice) < 1e-2) {
+            System.out.printf("✓ European theta on the curves matches the lattice (%.4f vs %.4f)%n", closed, lattice);
+        } else {
+            System.out.printf("❌ Failed: European theta %.5f on the curves, lattice %.5f%n", closed, lattice);
+        }
+
+        // No forward variance after six months: the long slice is centred on its forward
+        MarketData still = base.withVolCurve(new VolCurve(new double[]{0.5, 2.0}, new double[]{0.2, 0.1}));
+        VanillaOption euPut = new VanillaOption(100.0, false, false, 1.0);
+        double european = Library.binom(euPut, still, 2000).FV;
+        double american = Library.binom(amPut, still, 2000).FV;
+        double error = Math.abs(european - BlackScholes.price(euPut, still.flat(1.0)).FV);
+        if (error < 2e-3 && american > european) {
+            System.out.printf("✓ Zero forward variance prices (European error %.1e, American %.4f)%n", error, american);
+        } else {
+            System.out.printf("❌ Failed: zero forward variance European error %.2e, American %.5f%n", error, american);
+        }
+
+        // Parallel blocks read the same per-slice probabilities and discounts
+        Output serial = Library.binom(amPut, curved, 4000);
+        Output parallel = Library.binom(amPut, curved, 4000, LatticeOptions.parallel());
+        if (serial.FV == parallel.FV && serial.fugit == parallel.fugit) {
+            System.out.printf("✓ Parallel lattice identical on the curves (American put %.4f)%n", serial.FV);
+        } else {
+            System.out.printf("❌ Failed: parallel %.12f vs serial %.12f%n", parallel.FV, serial.FV);
+        }
+
+        // The flat-equivalent engines keep Europeans and refuse early exercise on curves
+        double trinomEuropean = Library.trinom(euPut, curved, 1000).FV;
+        double flatEuropean = BlackScholes.price(euPut, curved.flat(1.0)).FV;
+        if (Math.abs(trinomEuropean - flatEuropean) < 2e-3) {
+            System.out.printf("✓ Trinomial European on the curves %.4f (flat Black-Scholes %.4f)%n",
+                             trinomEuropean, flatEuropean);
+        } else {
+            System.out.printf("❌ Failed: trinomial European %.6f on the curves vs %.6f%n",
+                             trinomEuropean, flatEuropean);
+        }
+        MarketData rateOnly = base.withDiscountCurve(new DiscountCurve(pillars, new double[]{0.02, 0.03, 0.045, 0.05}));
+        MonteCarloOptions paths = new MonteCarloOptions();
+        paths.paths = 1000;
+        String[] engines = {"trinom", "pde", "lsm"};
+        int accepted = 0;
+        for (MarketData market : new MarketData[]{curved, rateOnly, still}) {
+            for (Derivative contract : new Derivative[]{amPut, bermudan}) {
+                for (String engine : engines) {
+                    try {
+                        if (engine.equals("trinom")) Library.trinom(contract, market, 100);
+                        else if (engine.equals("pde")) Library.pde(contract, market, 100);
+                        else Library.lsm(contract, market, paths);
+                        System.out.printf("❌ Failed: %s accepted early exercise on curves%n", engine);
+                        accepted++;
+                    } catch (IllegalArgumentException e) {
+                        // Expected: only binom follows the curves slice by slice
+                    }
+                }
+            }
+        }
+        if (accepted == 0) {
+            System.out.println("✓ trinom, pde and lsm reject early exercise on curves");
+        }
+
+        try {
+            new VolCurve(pillars, new double[]{0.4, 0.2, 0.2, 0.2});
+            System.out.println("❌ Failed: decreasing total variance was accepted");
+        } catch (IllegalArgumentException e) {
+            System.out.println("✓ Calendar arbitrage in the vol curve rejected");
+        }
+        try {
+            new DiscountCurve(new double[]{0.5, 0.25}, new double[]{0.03, 0.03});
+            System.out.println("❌ Failed: unordered pillars were accepted");
+        } catch (IllegalArgumentException e) {
+            System.out.println("✓ Unordered pillar times rejected");
+        }
+    }
+
+    private static void testVolSurface() {
+        System.out.println("=== Testing Vol Surface ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.25, 0.0);
+        double[] expiries = {0.25, 0.5, 1.0};
+
+        // European quotes priced off a known smile; American puts off a flat 30%
+        List<VolSurfaceBuilder.Quote> quotes = new ArrayList<>();
+        for (double T : expiries) {
+            for (int k = 0; k <= 20; k++) {
+                double strike = 70.0 + 3.0 * k;
+                VanillaOption call = new VanillaOption(strike, true, false, T);
+                quotes.add(new VolSurfaceBuilder.Quote(call, BlackScholes.price(call, mkt.withSigma(smile(strike))).FV));
+            }
+        }
+        int firstAmerican = quotes.size();
+        for (int k = 0; k <= 10; k++) {
+            VanillaOption put = new VanillaOption(80.0 + 4.0 * k, false, true, 0.5);
+            quotes.add(new VolSurfaceBuilder.Quote(put, Library.binom(put, mkt.withSigma(0.3), 100).FV));
+        }
+        VolSurfaceBuilder builder = new VolSurfaceBuilder(100);
+        List<Output> vols = builder.impliedVols(quotes, mkt);
+
+        double worst = 0;
+        for (int i = firstAmerican; i < quotes.size(); i++) worst = Math.max(worst, Math.abs(vols.get(i).impvol - 0.3));
+        if (worst < 1e-4) {
+            System.out.printf("✓ American implied vols recovered in input order (error %.1e)%n", worst);
+        } else {
+            System.out.printf("❌ Failed: American implied vol error %.2e%n", worst);
+        }
+
+        // Off-node strikes on a quoted expiry come from the smile spline
+        VolSurface surface = builder.build(quotes.subList(0, firstAmerican), vols.subList(0, firstAmerican), mkt);
+        worst = 0;
+        for (double T : expiries) {
+            for (double strike = 71.5; strike < 130.0; strike += 3.0) {
+                worst = Math.max(worst, Math.abs(surface.vol(T, strike) - smile(strike)));
+            }
+        }
+        if (worst < 1e-3) {
+            System.out.printf("✓ Surface interpolates the smile between strikes (error %.1e)%n", worst);
+        } else {
+            System.out.printf("❌ Failed: surface error %.2e%n", worst);
+        }
+
+        // The surface's term structure at one strike prices on MarketData.withVolCurve
+        VanillaOption call = new VanillaOption(91.0, true, false, 0.5);
+        double gap = Math.abs(Library.binom(call, mkt.withVolCurve(surface.volCurve(91.0)), 2000).FV
+                              - BlackScholes.price(call, mkt.withSigma(surface.vol(0.5, 91.0))).FV);
+        if (gap < 2e-3) {
+            System.out.printf("✓ Strike slice of the surface prices in the lattice (gap %.1e)%n", gap);
+        } else {
+            System.out.printf("❌ Failed: vol curve from the surface misprices by %.2e%n", gap);
+        }
+
+        // Inverted term structure: the later expiry's variance is clamped up to the earlier one
+        List<VolSurfaceBuilder.Quote> inverted = new ArrayList<>();
+        for (int k = 0; k <= 8; k++) {
+            double strike = 80.0 + 5.0 * k;
+            VanillaOption near = new VanillaOption(strike, true, false, 0.5);
+            VanillaOption far = new VanillaOption(strike, true, false, 1.0);
+            inverted.add(new VolSurfaceBuilder.Quote(near, BlackScholes.price(near, mkt.withSigma(0.3 + smile(strike))).FV));
+            inverted.add(new VolSurfaceBuilder.Quote(far, BlackScholes.price(far, mkt.withSigma(0.25)).FV));
+        }
+        try {
+            VolSurface clamped = builder.build(inverted, mkt);
+            // Between grid strikes and between expiries too, variance never falls with time
+            double drop = 0;
+            for (double strike = 78.3; strike < 123.0; strike += 0.77) {
+                double previous = 0;
+                for (double T = 0.05; T <= 1.5; T += 0.01) {
+                    double w = clamped.variance(T, strike);
+                    drop = Math.max(drop, previous - w);
+                    previous = w;
+                }
+            }
+            if (drop == 0) {
+                System.out.println("✓ Clamped surface variance non-decreasing in T off the grid");
+            } else {
+                System.out.printf("❌ Failed: clamped surface variance falls by %.2e%n", drop);
+            }
+            MarketData onCurve = mkt.withVolCurve(clamped.volCurve(100.0));
+            VanillaOption put = new VanillaOption(100.0, false, true, 1.0);
+            double price = Library.binom(put, onCurve, 500).FV;
+            System.out.printf("✓ Inverted term structure gives a usable vol curve (American put %.4f)%n", price);
+        } catch (IllegalArgumentException e) {
+            System.out.println("❌ Failed: inverted term structure: " + e.getMessage());
+        }
+
+        try {
+            builder.build(new ArrayList<>(), mkt);
+            System.out.println("❌ Failed: empty chain built a surface");
+        } catch (IllegalArgumentException e) {
+            System.out.println("✓ Surface without converged quotes rejected");
+        }
+    }
+
+    /** Quadratic smile in log-moneyness around a spot of 100 */
+    private static double smile(double strike) {
+        double x = Math.log(strike / 100.0);
+        return 0.2 - 0.05 * x + 0.3 * x * x;
     }
 
     private static void printResult(String testName, Output result, double strike, double spot, double vol) {
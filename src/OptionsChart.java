@@ -3,6 +3,8 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Represents a comprehensive options chart display for different option types
@@ -14,7 +16,12 @@ class OptionsChart {
     private double ivRank;
     private double dividendYield;
     private static final String OUTPUT_FILE = "options_data.txt";
+    /** Lattice steps for pricing and for inverting the chain's prices */
+    private static final int STEPS = 50;
     private StringBuilder outputBuffer;
+    /** File the chain is written to; null skips the file */
+    private String outputFile = OUTPUT_FILE;
+    private final VolSurfaceBuilder volBuilder = new VolSurfaceBuilder(STEPS);
     
     public static class OptionChain {
         public double strike;
@@ -43,6 +50,14 @@ class OptionsChart {
         this.outputBuffer = new StringBuilder();
     }
 
+    /**
+     * Sets the file displayOptionsChain writes to, options_data.txt unless
+     * set. Null skips the file, so benchmarks time the chain without I/O.
+     */
+    void setOutputFile(String file) {
+        this.outputFile = file;
+    }
+
     public void displayOptionsChain(double maturity, MarketData mkt) {
         // Clear the buffer at the start of new display
         outputBuffer.setLength(0);
@@ -59,9 +74,10 @@ class OptionsChart {
         outputBuffer.append(String.format("Days to Expiration: %.0f | Risk-free Rate: %.1f%%\n\n",
                 maturity * 365, mkt.r * 100));
 
-        // Display Calls and Puts
-        displayCallSection(maturity, mkt);
-        displayPutSection(maturity, mkt);
+        // Display Calls and Puts, priced with the chart's dividend yield
+        MarketData carry = mkt.withDividendYield(dividendYield);
+        displayCallSection(maturity, carry);
+        displayPutSection(maturity, carry);
 
         // Write to file and console
         writeToFile();
@@ -75,19 +91,35 @@ class OptionsChart {
 
         double[] strikes = generateStrikes(currentPrice);
         
+        // Early-exercise contracts share maturity and market data, so they are
+        // priced in one lattice pass; European ones go to the closed form.
+        // Rows come back in input order.
+        List<VanillaOption> contracts = new ArrayList<>(strikes.length * 2);
         for (double strike : strikes) {
-            VanillaOption europeanCall = new VanillaOption(strike, true, false, maturity);
-            VanillaOption americanCall = new VanillaOption(strike, true, true, maturity);
-            BermudanOption bermudanCall = new BermudanOption(strike, true, maturity, 
-                                                           maturity * 0.3, maturity * 0.8);
-
-            Output resultEuro = Library.binom(europeanCall, mkt, 50);
-            Output resultAmer = Library.binom(americanCall, mkt, 50);
-            Output resultBerm = Library.binom(bermudanCall, mkt, 50);
-
-            displayOptionRow(strike, "EUR-C", resultEuro);
-            displayOptionRow(strike, "AMR-C", resultAmer);
-            displayOptionRow(strike, "BER-C", resultBerm);
+            contracts.add(new VanillaOption(strike, true, true, maturity));
+            contracts.add(new BermudanOption(strike, true, maturity,
+                                             maturity * 0.3, maturity * 0.8));
+        }
+        List<Output> results = Library.binomBatch(contracts, mkt, STEPS);
+
+        List<VolSurfaceBuilder.Quote> quotes = new ArrayList<>(strikes.length * 3);
+        List<Output> rows = new ArrayList<>(strikes.length * 3);
+        for (int i = 0; i < strikes.length; i++) {
+            VanillaOption european = new VanillaOption(strikes[i], true, false, maturity);
+            rows.add(Library.price(european, mkt, STEPS));
+            rows.add(results.get(2 * i));
+            rows.add(results.get(2 * i + 1));
+            quotes.add(new VolSurfaceBuilder.Quote(european, rows.get(3 * i).FV));
+            quotes.add(new VolSurfaceBuilder.Quote(contracts.get(2 * i), rows.get(3 * i + 1).FV));
+            quotes.add(new VolSurfaceBuilder.Quote(contracts.get(2 * i + 1), rows.get(3 * i + 2).FV));
+        }
+        // The IV column inverts each row's price; the whole side in one parallel pass
+        List<Output> vols = volBuilder.impliedVols(quotes, mkt);
+
+        for (int i = 0; i < strikes.length; i++) {
+            displayOptionRow(strikes[i], "EUR-C", rows.get(3 * i), vols.get(3 * i));
+            displayOptionRow(strikes[i], "AMR-C", rows.get(3 * i + 1), vols.get(3 * i + 1));
+            displayOptionRow(strikes[i], "BER-C", rows.get(3 * i + 2), vols.get(3 * i + 2));
         }
     }
 
@@ -98,19 +130,35 @@ class OptionsChart {
 
         double[] strikes = generateStrikes(currentPrice);
         
+        // Early-exercise contracts share maturity and market data, so they are
+        // priced in one lattice pass; European ones go to the closed form.
+        // Rows come back in input order.
+        List<VanillaOption> contracts = new ArrayList<>(strikes.length * 2);
         for (double strike : strikes) {
-            VanillaOption europeanPut = new VanillaOption(strike, false, false, maturity);
-            VanillaOption americanPut = new VanillaOption(strike, false, true, maturity);
-            BermudanOption bermudanPut = new BermudanOption(strike, false, maturity, 
-                                                          maturity * 0.3, maturity * 0.8);
-
-            Output resultEuro = Library.binom(europeanPut, mkt, 50);
-            Output resultAmer = Library.binom(americanPut, mkt, 50);
-            Output resultBerm = Library.binom(bermudanPut, mkt, 50);
-
-            displayOptionRow(strike, "EUR-P", resultEuro);
-            displayOptionRow(strike, "AMR-P", resultAmer);
-            displayOptionRow(strike, "BER-P", resultBerm);
+            contracts.add(new VanillaOption(strike, false, true, maturity));
+            contracts.add(new BermudanOption(strike, false, maturity,
+                                             maturity * 0.3, maturity * 0.8));
+        }
+        List<Output> results = Library.binomBatch(contracts, mkt, STEPS);
+
+        List<VolSurfaceBuilder.Quote> quotes = new ArrayList<>(strikes.length * 3);
+        List<Output> rows = new ArrayList<>(strikes.length * 3);
+        for (int i = 0; i < strikes.length; i++) {
+            VanillaOption european = new VanillaOption(strikes[i], false, false, maturity);
+            rows.add(Library.price(european, mkt, STEPS));
+            rows.add(results.get(2 * i));
+            rows.add(results.get(2 * i + 1));
+            quotes.add(new VolSurfaceBuilder.Quote(european, rows.get(3 * i).FV));
+            quotes.add(new VolSurfaceBuilder.Quote(contracts.get(2 * i), rows.get(3 * i + 1).FV));
+            quotes.add(new VolSurfaceBuilder.Quote(contracts.get(2 * i + 1), rows.get(3 * i + 2).FV));
+        }
+        // The IV column inverts each row's price; the whole side in one parallel pass
+        List<Output> vols = volBuilder.impliedVols(quotes, mkt);
+
+        for (int i = 0; i < strikes.length; i++) {
+            displayOptionRow(strikes[i], "EUR-P", rows.get(3 * i), vols.get(3 * i));
+            displayOptionRow(strikes[i], "AMR-P", rows.get(3 * i + 1), vols.get(3 * i + 1));
+            displayOptionRow(strikes[i], "BER-P", rows.get(3 * i + 2), vols.get(3 * i + 2));
         }
     }
 
@@ -125,7 +173,7 @@ class OptionsChart {
         return strikes;
     }
 
-    private void displayOptionRow(double strike, String type, Output result) {
+    private void displayOptionRow(double strike, String type, Output result, Output vol) {
         double spread = result.FV * 0.05;
         double bid = result.FV - spread/2;
         double ask = result.FV + spread/2;
@@ -134,18 +182,12 @@ class OptionsChart {
         
         outputBuffer.append(String.format("%6.2f | %4s | %5.2f | %5.2f | %5.2f | %6d | %4d | %4.1f | %5.2f\n",
                 strike, type, bid, ask, result.FV, 
-                volume, openInterest, result.impvol * 100, 
-                calculateDelta(result.FV, strike)));
+                volume, openInterest, vol.impvol * 100, result.delta));
     }
 
-    private double calculateDelta(double optionPrice, double strike) {
-        // Simple delta approximation
-        return Math.max(-1, Math.min(1, (optionPrice/strike) * 
-               (currentPrice > strike ? 1 : -1)));
-    }
-    
     private void writeToFile() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(OUTPUT_FILE))) {
+        if (outputFile == null) return;
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
             writer.write(outputBuffer.toString());
         } catch (IOException e) {
             System.err.println("Error writing to file: " + e.getMessage());
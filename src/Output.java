@@ -11,6 +11,20 @@ final class Output {
     public double impvol;
     /** Number of iterations for implied volatility calculation */
     public int num_iter;
+    /** Sensitivity of FV to the stock price */
+    public double delta;
+    /** Sensitivity of delta to the stock price */
+    public double gamma;
+    /** Sensitivity of FV to volatility */
+    public double vega;
+    /** Sensitivity of FV to the passage of time (per year) */
+    public double theta;
+    /** Whether the implied volatility solver met its tolerance */
+    public boolean converged;
+    /** Standard error of FV for Monte Carlo prices; zero otherwise */
+    public double std_error;
+    /** Critical spot at each lattice slice (NaN where none), if requested */
+    public double[] exercise_boundary;
     
     /**
      * Creates a new Output instance with default values.
@@ -20,11 +34,18 @@ final class Output {
         this.fugit = 0.0;
         this.impvol = 0.0;
         this.num_iter = 0;
+        this.delta = 0.0;
+        this.gamma = 0.0;
+        this.vega = 0.0;
+        this.theta = 0.0;
+        this.converged = false;
+        this.std_error = 0.0;
+        this.exercise_boundary = null;
     }
 
     @Override
     public String toString() {
-        return String.format("Fair Value: %.4f, Fugit: %.4f, Implied Vol: %.4f, Iterations: %d",
-                           FV, fugit, impvol, num_iter);
+        return String.format("Fair Value: %.4f, Fugit: %.4f, Implied Vol: %.4f, Iterations: %d, Converged: %b",
+                           FV, fugit, impvol, num_iter, converged);
     }
 }
\ No newline at end of file
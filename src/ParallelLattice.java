@@ -0,0 +1,154 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join backward induction for very wide binomial lattices.
+ * 
+ * Nodes within one time slice are independent, but a barrier per slice
+ * costs more than the work of a slice unless it is enormous. Instead the
+ * lattice is cut into trapezoidal tiles: each task copies its range of
+ * slice i plus a ghost zone of BLOCK_STEPS extra nodes, rolls it back
+ * BLOCK_STEPS slices in a private scratch buffer, and writes its own range
+ * of slice i - BLOCK_STEPS. The ghost nodes are computed twice, which is a
+ * small price for one barrier per BLOCK_STEPS slices.
+ * 
+ * Expected exercise times (the fugit vector) are rolled back alongside
+ * the values in the same tiles. Slices off the exercise schedule skip the
+ * exercise callback, as in the serial loop. Slice times, probabilities and
+ * discount factors come per slice from Library.fillSlices.
+ * 
+ * Tasks read one buffer and write the other, so they never race, and
+ * every node is computed with the same arithmetic as the serial loop, so
+ * results are bit-for-bit identical.
+ */
+final class ParallelLattice {
+    /** Slices rolled back between barriers */
+    static final int BLOCK_STEPS = 64;
+    /** Smallest node range worth its own task */
+    private static final int MIN_TASK_NODES = 16 * BLOCK_STEPS;
+
+    /** Per-worker tile buffer, grown on demand and reused across blocks */
+    private static final ThreadLocal<double[]> SCRATCH = ThreadLocal.withInitial(() -> new double[0]);
+
+    private ParallelLattice() {
+    }
+
+    /**
+     * Rolls the lattice back from slice top to slice top - BLOCK_STEPS.
+     * 
+     * @param schedule Exercisable flag of each slice
+     * @param src Values of slice top in src[0..top]
+     * @param dst Receives the values of slice top - BLOCK_STEPS
+     * @param srcTimes Expected exercise times of slice top
+     * @param dstTimes Receives the expected exercise times of slice top - BLOCK_STEPS
+     * @param escrow Cash dividend shift of each slice's spots
+     * @param t0 Clock time of the root, added to the slice times
+     * @param sliceTimes Time of each slice, measured from t0
+     * @param scales Spot scale of each slice
+     * @param probabilities Up probability of each step
+     * @param discounts Discount factor of each step
+     */
+    static void rollBackBlock(Derivative deriv, boolean[] schedule, double[] src, double[] dst,
+                              double[] srcTimes, double[] dstTimes, double[] spots, double[] escrow,
+                              double t0, double[] sliceTimes, double[] scales, double[] probabilities,
+                              double[] discounts, int n, int top, ForkJoinPool pool) {
+        pool.invoke(new BlockTask(deriv, schedule, src, dst, srcTimes, dstTimes, spots, escrow, t0,
+                                  sliceTimes, scales, probabilities, discounts, n, top, 0,
+                                  top - BLOCK_STEPS + 1));
+    }
+
+    @SuppressWarnings("serial")
+    private static final class BlockTask extends RecursiveAction {
+        private final Derivative deriv;
+        private final boolean[] schedule;
+        private final double[] src;
+        private final double[] dst;
+        private final double[] srcTimes;
+        private final double[] dstTimes;
+        private final double[] spots;
+        private final double[] escrow;
+        private final double t0;
+        private final double[] sliceTimes;
+        private final double[] scales;
+        private final double[] probabilities;
+        private final double[] discounts;
+        private final int n;
+        private final int top;
+        /** Range of output nodes [from, to) at slice top - BLOCK_STEPS */
+        private final int from;
+        private final int to;
+
+        BlockTask(Derivative deriv, boolean[] schedule, double[] src, double[] dst, double[] srcTimes,
+                  double[] dstTimes, double[] spots, double[] escrow, double t0, double[] sliceTimes,
+                  double[] scales, double[] probabilities, double[] discounts, int n, int top,
+                  int from, int to) {
+            this.deriv = deriv;
+            this.schedule = schedule;
+            this.src = src;
+            this.dst = dst;
+            this.srcTimes = srcTimes;
+            this.dstTimes = dstTimes;
+            this.spots = spots;
+            this.escrow = escrow;
+            this.t0 = t0;
+            this.sliceTimes = sliceTimes;
+            this.scales = scales;
+            this.probabilities = probabilities;
+            this.discounts = discounts;
+            this.n = n;
+            this.top = top;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 2 * MIN_TASK_NODES) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BlockTask(deriv, schedule, src, dst, srcTimes, dstTimes, spots, escrow, t0,
+                                        sliceTimes, scales, probabilities, discounts, n, top, from, mid),
+                          new BlockTask(deriv, schedule, src, dst, srcTimes, dstTimes, spots, escrow, t0,
+                                        sliceTimes, scales, probabilities, discounts, n, top, mid, to));
+                return;
+            }
+
+            // to + BLOCK_STEPS never exceeds top + 1, so the ghost zone is always in range
+            // Values in local[0..length), exercise times in local[length..2 length)
+            int length = to - from + BLOCK_STEPS;
+            double[] local = SCRATCH.get();
+            if (local.length < 2 * length) {
+                local = new double[2 * length];
+                SCRATCH.set(local);
+            }
+            System.arraycopy(src, from, local, 0, length);
+            System.arraycopy(srcTimes, from, local, length, length);
+
+            for (int s = 1; s <= BLOCK_STEPS; s++) {
+                int i = top - s;
+                double p = probabilities[i];
+                double discountFactor = discounts[i];
+                if (!schedule[i]) {
+                    for (int jj = 0, last = length - s; jj < last; jj++) {
+                        local[jj] = discountFactor * (p * local[jj + 1] + (1 - p) * local[jj]);
+                        int tj = length + jj;
+                        local[tj] = p * local[tj + 1] + (1 - p) * local[tj];
+                    }
+                    continue;
+                }
+                double t = t0 + sliceTimes[i];
+                double scale = scales[i];
+                double shift = escrow[i];
+                for (int jj = 0, last = length - s, k = n - i + 2 * from; jj < last; jj++, k += 2) {
+                    double continuation = discountFactor * (p * local[jj + 1] +
+                                                         (1 - p) * local[jj]);
+                    double value = deriv.exercise(scale * spots[k] + shift, continuation, t);
+                    int tj = length + jj;
+                    local[tj] = value > continuation ? t : p * local[tj + 1] + (1 - p) * local[tj];
+                    local[jj] = value;
+                }
+            }
+            System.arraycopy(local, 0, dst, from, to - from);
+            System.arraycopy(local, length, dstTimes, from, to - from);
+        }
+    }
+}
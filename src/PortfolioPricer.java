@@ -0,0 +1,96 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Prices a whole portfolio of independent contracts in parallel.
+ * 
+ * Jobs are split recursively over a work-stealing ForkJoinPool, so an
+ * idle worker steals whatever range is left when contracts of very
+ * different step counts make the load uneven. Each worker keeps one
+ * LatticeWorkspace and reuses it for every contract it prices. Every job
+ * goes through Library.price, so European vanilla options take the
+ * closed-form path.
+ */
+final class PortfolioPricer {
+    /** Leaf tasks are cut to about this many per worker, for stealing */
+    private static final int TASKS_PER_WORKER = 8;
+
+    private static final ThreadLocal<LatticeWorkspace> WORKSPACE =
+        ThreadLocal.withInitial(LatticeWorkspace::new);
+
+    private final ForkJoinPool pool;
+
+    /**
+     * A single pricing request: one contract, its market data and step count.
+     */
+    public static final class Job {
+        public final Derivative deriv;
+        public final MarketData mkt;
+        public final int steps;
+
+        public Job(Derivative deriv, MarketData mkt, int steps) {
+            if (steps <= 0) throw new IllegalArgumentException("Number of steps must be positive");
+            this.deriv = deriv;
+            this.mkt = mkt;
+            this.steps = steps;
+        }
+    }
+
+    /**
+     * Creates a pricer that runs on the common pool.
+     */
+    public PortfolioPricer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public PortfolioPricer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Prices every job and returns the results in input order.
+     * 
+     * @param jobs The contracts to price
+     * @return One Output per job, at the job's index
+     */
+    public List<Output> priceAll(final List<Job> jobs) {
+        Output[] results = new Output[jobs.size()];
+        int leafSize = Math.max(1, jobs.size() / (pool.getParallelism() * TASKS_PER_WORKER));
+        pool.invoke(new PriceTask(jobs, results, 0, jobs.size(), leafSize));
+        return Arrays.asList(results);
+    }
+
+    @SuppressWarnings("serial")
+    private static final class PriceTask extends RecursiveAction {
+        private final List<Job> jobs;
+        private final Output[] results;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        PriceTask(List<Job> jobs, Output[] results, int from, int to, int leafSize) {
+            this.jobs = jobs;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > leafSize) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PriceTask(jobs, results, from, mid, leafSize),
+                          new PriceTask(jobs, results, mid, to, leafSize));
+                return;
+            }
+            LatticeWorkspace work = WORKSPACE.get();
+            for (int i = from; i < to; i++) {
+                Job job = jobs.get(i);
+                results[i] = Library.price(job.deriv, job.mkt, job.steps, work);
+            }
+        }
+    }
+}
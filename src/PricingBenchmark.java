@@ -0,0 +1,776 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Benchmarks for the pricing library.
+ * 
+ * The regression suite times Library.binom across step counts and exercise
+ * styles, Library.impvol across moneyness, and full options-chain
+ * generation. For each case it reports mean ns/op, p50/p90/p99 latency and
+ * bytes allocated per op. Allocation is read from the HotSpot per-thread
+ * allocation counter, which stands in for a GC profiler without any
+ * external dependency; the jmh module runs the same cases under JMH with
+ * -prof gc. The suite is followed by focused studies that compare engine
+ * variants.
+ * 
+ * Run with: java PricingBenchmark [--suite-only] [--csv out.csv] [--baseline old.csv]
+ * 
+ * Saving --csv for every release and passing the previous file as
+ * --baseline prints the change per benchmark and flags regressions.
+ */
+public class PricingBenchmark {
+    private static final int WARMUP_OPS = 200;
+    private static final int MEASURED_OPS = 200;
+    /** Suite timing budget per benchmark */
+    private static final long WARMUP_NS = 300_000_000L;
+    private static final long MEASURE_NS = 700_000_000L;
+    private static final long SAMPLE_NS = 20_000L;
+    private static final int MIN_SAMPLES = 5;
+    /** Slowdown against the baseline that is flagged as a regression */
+    private static final double REGRESSION_THRESHOLD = 0.10;
+
+    /** Keeps results live so the JIT cannot eliminate the priced work */
+    private static double sink;
+
+    public static void main(String[] args) throws IOException {
+        boolean suiteOnly = false;
+        String csv = null;
+        String baseline = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--suite-only")) suiteOnly = true;
+            else if (args[i].equals("--csv") && i + 1 < args.length) csv = args[++i];
+            else if (args[i].equals("--baseline") && i + 1 < args.length) baseline = args[++i];
+            else throw new IllegalArgumentException("Unknown argument: " + args[i]);
+        }
+
+        List<Result> results = runSuite();
+        if (csv != null) writeCsv(results, csv);
+        if (baseline != null) {
+            System.out.println();
+            compareWithBaseline(results, baseline);
+        }
+        if (suiteOnly) return;
+
+        System.out.println();
+        benchAllocation();
+        System.out.println();
+        benchSpotRecurrence();
+        System.out.println();
+        benchStrikeLadder();
+        System.out.println();
+        benchParallelLattice();
+        System.out.println();
+        benchVectorKernel();
+        System.out.println();
+        benchDividends();
+        System.out.println();
+        benchTermStructure();
+        System.out.println();
+        benchVolSurface();
+        System.out.println();
+        benchPortfolioThroughput();
+        System.out.println();
+        benchConvergence();
+        System.out.println();
+        benchTrinomial();
+        System.out.println();
+        benchFiniteDifference();
+        System.out.println();
+        benchMonteCarlo();
+    }
+
+    /**
+     * The standard regression suite: binom across step counts and exercise
+     * styles, impvol across moneyness, and full options-chain generation.
+     * Each row reports mean ns/op, latency percentiles and bytes allocated
+     * per op.
+     */
+    private static List<Result> runSuite() {
+        System.out.println("=== Regression suite ===");
+        System.out.println(Result.HEADER);
+        List<Result> results = new ArrayList<>();
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.25, 0.0);
+
+        final Derivative[] styles = {
+            new VanillaOption(100.0, false, false, 1.0),
+            new VanillaOption(100.0, false, true, 1.0),
+            new BermudanOption(100.0, false, 1.0, 0.25, 0.75)
+        };
+        String[] styleNames = {"european", "american", "bermudan"};
+        int[] stepCounts = {50, 200, 1000, 5000, 20000};
+        for (final int steps : stepCounts) {
+            for (int k = 0; k < styles.length; k++) {
+                final Derivative deriv = styles[k];
+                results.add(report(measure("binom/" + styleNames[k] + "/" + steps,
+                                           () -> sink += Library.binom(deriv, mkt, steps).FV)));
+            }
+        }
+
+        double[] strikes = {80.0, 90.0, 100.0, 110.0, 120.0};
+        for (double strike : strikes) {
+            final VanillaOption amPut = new VanillaOption(strike, false, true, 1.0);
+            final VanillaOption euPut = new VanillaOption(strike, false, false, 1.0);
+            final MarketData amQuote = new MarketData(Library.binom(amPut, mkt, 50).FV, 100.0, 0.05, 0.2, 0.0);
+            final MarketData euQuote = new MarketData(BlackScholes.price(euPut, mkt).FV, 100.0, 0.05, 0.2, 0.0);
+            String moneyness = String.format("K%.0f", strike);
+            results.add(report(measure("impvol/american/" + moneyness,
+                () -> sink += Library.impvol(amPut, amQuote, 50, 100, 1e-4, null).impvol)));
+            results.add(report(measure("impvol/european/" + moneyness,
+                () -> sink += Library.impvol(euPut, euQuote, 50, 100, 1e-4, null).impvol)));
+        }
+
+        // The chain prints to stdout and writes options_data.txt; only the
+        // printing is silenced so the console stays readable
+        final OptionsChart chart = new OptionsChart("BENCH", 100.0, 45.0, 0.015);
+        PrintStream console = System.out;
+        Result chain;
+        try {
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+            }));
+            chain = measure("chart/displayOptionsChain", () -> chart.displayOptionsChain(0.25, mkt));
+        } finally {
+            System.setOut(console);
+        }
+        results.add(report(chain));
+        return results;
+    }
+
+    private static Result report(Result result) {
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * Times one operation. After a warm-up phase, ops are grouped into
+     * samples of at least SAMPLE_NS so timer resolution does not matter,
+     * and samples are collected until MEASURE_NS has elapsed.
+     */
+    private static Result measure(String name, Runnable op) {
+        long warmupEnd = System.nanoTime() + WARMUP_NS;
+        long single = Long.MAX_VALUE;
+        int warmups = 0;
+        while (warmups < 3 || System.nanoTime() < warmupEnd) {
+            long start = System.nanoTime();
+            op.run();
+            single = Math.min(single, System.nanoTime() - start);
+            warmups++;
+        }
+        int batch = (int) Math.max(1, SAMPLE_NS / Math.max(1, single));
+
+        List<Long> samples = new ArrayList<>();
+        long ops = 0;
+        long allocBefore = allocatedBytes();
+        long measureEnd = System.nanoTime() + MEASURE_NS;
+        while (samples.size() < MIN_SAMPLES || System.nanoTime() < measureEnd) {
+            long start = System.nanoTime();
+            for (int i = 0; i < batch; i++) op.run();
+            samples.add((System.nanoTime() - start) / batch);
+            ops += batch;
+        }
+        long allocated = allocatedBytes() - allocBefore;
+
+        long[] sorted = new long[samples.size()];
+        long total = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = samples.get(i);
+            total += sorted[i] * batch;
+        }
+        Arrays.sort(sorted);
+        return new Result(name, (double) total / ops, percentile(sorted, 0.50),
+                          percentile(sorted, 0.90), percentile(sorted, 0.99),
+                          (double) allocated / ops);
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(q * sorted.length))];
+    }
+
+    /**
+     * Prints the change against a previous --csv run. Rows more than
+     * REGRESSION_THRESHOLD slower are flagged.
+     */
+    private static void compareWithBaseline(List<Result> results, String path) throws IOException {
+        Map<String, Double> baseline = new HashMap<>();
+        for (String line : Files.readAllLines(Paths.get(path))) {
+            String[] cols = line.split(",");
+            if (cols.length < 2 || cols[0].equals("benchmark")) continue;
+            baseline.put(cols[0], Double.parseDouble(cols[1]));
+        }
+        System.out.println("=== Change against " + path + " ===");
+        for (Result result : results) {
+            Double before = baseline.get(result.name);
+            if (before == null) continue;
+            double change = result.meanNs / before - 1;
+            System.out.printf("%-32s | %+7.1f%%%s%n", result.name, change * 100,
+                             change > REGRESSION_THRESHOLD ? "  <-- REGRESSION" : "");
+        }
+    }
+
+    private static void writeCsv(List<Result> results, String path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("benchmark,mean_ns,p50_ns,p90_ns,p99_ns,bytes_per_op");
+        for (Result result : results) {
+            lines.add(String.format(Locale.ROOT, "%s,%.1f,%d,%d,%d,%.1f", result.name, result.meanNs,
+                                    result.p50, result.p90, result.p99, result.bytesPerOp));
+        }
+        Files.write(Paths.get(path), lines);
+    }
+
+    /** One row of the regression suite */
+    private static final class Result {
+        static final String HEADER = String.format("%-32s | %12s | %12s | %12s | %12s | %10s",
+                                                   "benchmark", "ns/op", "p50", "p90", "p99", "B/op");
+        final String name;
+        final double meanNs;
+        final long p50;
+        final long p90;
+        final long p99;
+        final double bytesPerOp;
+
+        Result(String name, double meanNs, long p50, long p90, long p99, double bytesPerOp) {
+            this.name = name;
+            this.meanNs = meanNs;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-32s | %12.0f | %12d | %12d | %12d | %10.0f",
+                                 name, meanNs, p50, p90, p99, bytesPerOp);
+        }
+    }
+
+    /**
+     * Bytes allocated per binom call and per lattice node.
+     * The only allocations left are the O(n) rolling vector, the spot table
+     * and the Output, so the per-node figure should round to zero.
+     */
+    private static void benchAllocation() {
+        System.out.println("=== Allocation per binom call ===");
+        System.out.println("Steps | Style    | bytes/op | bytes/node");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        Derivative[] derivs = {
+            new VanillaOption(100.0, true, false, 1.0),
+            new VanillaOption(100.0, false, true, 1.0),
+            new BermudanOption(100.0, false, 1.0, 0.25, 0.75)
+        };
+        String[] styles = {"European", "American", "Bermudan"};
+        int[] stepCounts = {50, 1000};
+
+        for (int steps : stepCounts) {
+            for (int k = 0; k < derivs.length; k++) {
+                for (int i = 0; i < WARMUP_OPS; i++) {
+                    sink += Library.binom(derivs[k], mkt, steps).FV;
+                }
+                long before = allocatedBytes();
+                for (int i = 0; i < MEASURED_OPS; i++) {
+                    sink += Library.binom(derivs[k], mkt, steps).FV;
+                }
+                double bytesPerOp = (double) (allocatedBytes() - before) / MEASURED_OPS;
+                double nodes = (steps + 1) * (steps + 2) / 2.0;
+                System.out.printf("%5d | %-8s | %8.0f | %10.4f%n",
+                                 steps, styles[k], bytesPerOp, bytesPerOp / nodes);
+            }
+        }
+    }
+
+    /**
+     * Spot-table binom against the previous per-node Math.pow engine.
+     * Reports the speedup and the largest relative price difference.
+     */
+    private static void benchSpotRecurrence() {
+        System.out.println("=== Spot table vs per-node Math.pow ===");
+        System.out.println("Steps | pow ns/op   | table ns/op | speedup | max rel err");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        Derivative[] derivs = {
+            new VanillaOption(90.0, true, false, 1.0),
+            new VanillaOption(100.0, false, true, 1.0),
+            new VanillaOption(110.0, false, true, 1.0),
+            new BermudanOption(100.0, false, 1.0, 0.25, 0.75)
+        };
+        int[] stepCounts = {50, 500, 2000};
+
+        for (int steps : stepCounts) {
+            int ops = Math.max(5, 2000000 / (steps * steps));
+            double maxRelErr = 0;
+            for (Derivative deriv : derivs) {
+                double reference = binomPowReference(deriv, mkt, steps);
+                double table = Library.binom(deriv, mkt, steps).FV;
+                maxRelErr = Math.max(maxRelErr, Math.abs(table - reference) / reference);
+            }
+            for (int i = 0; i < ops; i++) {
+                sink += binomPowReference(derivs[1], mkt, steps);
+                sink += Library.binom(derivs[1], mkt, steps).FV;
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                sink += binomPowReference(derivs[1], mkt, steps);
+            }
+            double powNs = (double) (System.nanoTime() - start) / ops;
+            start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                sink += Library.binom(derivs[1], mkt, steps).FV;
+            }
+            double tableNs = (double) (System.nanoTime() - start) / ops;
+            System.out.printf("%5d | %11.0f | %11.0f | %6.2fx | %.2e%n",
+                             steps, powNs, tableNs, powNs / tableNs, maxRelErr);
+        }
+    }
+
+    /**
+     * A 200-strike chain in three exercise styles: 600 binom calls against
+     * one binomBatch pass over the same lattice. The batch saves only the
+     * per-call setup, so expect well under 2x (see README).
+     */
+    private static void benchStrikeLadder() {
+        System.out.println("=== 200-strike chain: binom loop vs binomBatch ===");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        List<Derivative> chain = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            double strike = 50.0 + i * 0.5;
+            chain.add(new VanillaOption(strike, false, false, 0.25));
+            chain.add(new VanillaOption(strike, false, true, 0.25));
+            chain.add(new BermudanOption(strike, false, 0.25, 0.075, 0.2));
+        }
+        System.out.println("Steps | binom x 600 ms | binomBatch ms | speedup");
+        int[] stepCounts = {50, 200};
+
+        for (int steps : stepCounts) {
+            int ops = Math.max(5, 200000 / (steps * steps) * 10);
+            for (int i = 0; i < ops; i++) {
+                sink += Library.binomBatch(chain, mkt, steps).get(0).FV;
+                for (Derivative deriv : chain) sink += Library.binom(deriv, mkt, steps).FV;
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                for (Derivative deriv : chain) sink += Library.binom(deriv, mkt, steps).FV;
+            }
+            double loopNs = (double) (System.nanoTime() - start) / ops;
+            start = System.nanoTime();
+            for (int i = 0; i < ops; i++) {
+                sink += Library.binomBatch(chain, mkt, steps).get(0).FV;
+            }
+            double batchNs = (double) (System.nanoTime() - start) / ops;
+            System.out.printf("%5d | %14.2f | %13.2f | %6.2fx%n",
+                             steps, loopNs / 1e6, batchNs / 1e6, loopNs / batchNs);
+        }
+    }
+
+    /**
+     * Serial against fork/join backward induction on very large lattices.
+     */
+    private static void benchParallelLattice() {
+        System.out.println("=== Parallel lattice (" + ForkJoinPool.commonPool().getParallelism()
+                           + " workers) ===");
+        System.out.println("Steps | serial ms | parallel ms | speedup");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        VanillaOption amPut = new VanillaOption(100.0, false, true, 1.0);
+        LatticeOptions options = LatticeOptions.parallel();
+        int[] stepCounts = {10000, 20000};
+
+        for (int steps : stepCounts) {
+            sink += Library.binom(amPut, mkt, steps).FV;
+            sink += Library.binom(amPut, mkt, steps, options).FV;
+            long start = System.nanoTime();
+            sink += Library.binom(amPut, mkt, steps).FV;
+            double serialNs = System.nanoTime() - start;
+            start = System.nanoTime();
+            sink += Library.binom(amPut, mkt, steps, options).FV;
+            double parallelNs = System.nanoTime() - start;
+            System.out.printf("%5d | %9.1f | %11.1f | %6.2fx%n",
+                             steps, serialNs / 1e6, parallelNs / 1e6, serialNs / parallelNs);
+        }
+    }
+
+    /**
+     * Scalar against Vector API continuation kernel on the serial engine.
+     * Without the vector build (see SliceKernel) both columns run the
+     * scalar loop and the speedup is about 1.
+     */
+    private static void benchVectorKernel() {
+        boolean available = SliceKernel.VECTOR != SliceKernel.SCALAR;
+        System.out.println("=== Vector kernel (" + (available ? "jdk.incubator.vector" : "not available, scalar")
+                           + ") ===");
+        System.out.println("Contract     | Steps | scalar ms | vector ms | speedup");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        Derivative[] contracts = {
+            new VanillaOption(100.0, false, false, 1.0),
+            new VanillaOption(100.0, false, true, 1.0),
+            new BermudanOption(100.0, false, 1.0, 0.25, 0.75)
+        };
+        String[] names = {"European put", "American put", "Bermudan put"};
+        LatticeOptions vector = LatticeOptions.vector();
+        int[] stepCounts = {2000, 10000};
+
+        for (int c = 0; c < contracts.length; c++) {
+            for (int steps : stepCounts) {
+                for (int warm = 0; warm < 3; warm++) {
+                    sink += Library.binom(contracts[c], mkt, steps).FV;
+                    sink += Library.binom(contracts[c], mkt, steps, vector).FV;
+                }
+                double scalarNs = Double.MAX_VALUE, vectorNs = Double.MAX_VALUE;
+                for (int rep = 0; rep < 5; rep++) {
+                    long start = System.nanoTime();
+                    sink += Library.binom(contracts[c], mkt, steps).FV;
+                    scalarNs = Math.min(scalarNs, System.nanoTime() - start);
+                    start = System.nanoTime();
+                    sink += Library.binom(contracts[c], mkt, steps, vector).FV;
+                    vectorNs = Math.min(vectorNs, System.nanoTime() - start);
+                }
+                System.out.printf("%-12s | %5d | %9.2f | %9.2f | %6.2fx%n",
+                                  names[c], steps, scalarNs / 1e6, vectorNs / 1e6, scalarNs / vectorNs);
+            }
+        }
+    }
+
+    /**
+     * Cost of carry in the lattice: an American call with no dividends,
+     * a continuous yield, and two cash dividends, priced in one pass each.
+     */
+    private static void benchDividends() {
+        System.out.println("=== Dividends (American call, 2000 steps) ===");
+        System.out.println("Market          | ms/op | FV");
+        MarketData base = new MarketData(10.0, 100.0, 0.05, 0.25, 0.0);
+        MarketData[] markets = {
+            base,
+            base.withDividendYield(0.03),
+            base.withDividend(0.3, 1.5).withDividend(0.8, 1.5)
+        };
+        String[] names = {"No dividends", "Yield 3%", "Cash 2 x 1.50"};
+        VanillaOption amCall = new VanillaOption(100.0, true, true, 1.0);
+
+        for (int k = 0; k < markets.length; k++) {
+            for (int warm = 0; warm < 3; warm++) sink += Library.binom(amCall, markets[k], 2000).FV;
+            double best = Double.MAX_VALUE;
+            Output result = null;
+            for (int rep = 0; rep < 5; rep++) {
+                long start = System.nanoTime();
+                result = Library.binom(amCall, markets[k], 2000);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("%-15s | %5.2f | %.4f%n", names[k], best / 1e6, result.FV);
+        }
+    }
+
+    /**
+     * Term structure in the lattice: an American put on flat inputs and on
+     * rate and vol curves. The curves are resolved to per-slice arrays
+     * before induction, so the per-node cost should not change.
+     */
+    private static void benchTermStructure() {
+        System.out.println("=== Term structure (American put, 2000 steps) ===");
+        System.out.println("Market           | ms/op | FV");
+        MarketData base = new MarketData(10.0, 100.0, 0.05, 0.25, 0.0);
+        double[] pillars = {0.25, 0.5, 1.0, 2.0};
+        DiscountCurve rates = new DiscountCurve(pillars, new double[]{0.02, 0.03, 0.045, 0.05});
+        VolCurve vols = new VolCurve(pillars, new double[]{0.35, 0.3, 0.25, 0.22});
+        MarketData[] markets = {
+            base,
+            base.withDiscountCurve(rates),
+            base.withDiscountCurve(rates).withVolCurve(vols)
+        };
+        String[] names = {"Flat", "Rate curve", "Rate + vol curve"};
+        VanillaOption amPut = new VanillaOption(100.0, false, true, 1.0);
+
+        for (int k = 0; k < markets.length; k++) {
+            for (int warm = 0; warm < 3; warm++) sink += Library.binom(amPut, markets[k], 2000).FV;
+            double best = Double.MAX_VALUE;
+            Output result = null;
+            for (int rep = 0; rep < 5; rep++) {
+                long start = System.nanoTime();
+                result = Library.binom(amPut, markets[k], 2000);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("%-16s | %5.2f | %.4f%n", names[k], best / 1e6, result.FV);
+        }
+    }
+
+    /**
+     * Implied vols for a whole chain: quote by quote from mkt.sigma, against
+     * VolSurfaceBuilder with neighbour warm starts on one thread and on the
+     * common pool. Lattice evaluations are summed from Output.num_iter.
+     */
+    private static void benchVolSurface() {
+        int workers = ForkJoinPool.commonPool().getParallelism();
+        System.out.println("=== Vol surface (4 expiries x 41 strikes x call/put x EU/AM, 200 steps) ===");
+        System.out.println("Solver               | ms/chain | lattice evals");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.25, 0.0);
+        List<VolSurfaceBuilder.Quote> quotes = new ArrayList<>();
+        for (double T : new double[]{0.25, 0.5, 1.0, 2.0}) {
+            for (int k = 0; k <= 40; k++) {
+                double strike = 70.0 + 1.5 * k;
+                double x = Math.log(strike / 100.0);
+                MarketData smile = mkt.withSigma(0.2 - 0.05 * x + 0.3 * x * x);
+                for (boolean isCall : new boolean[]{true, false}) {
+                    for (boolean isAmerican : new boolean[]{false, true}) {
+                        VanillaOption option = new VanillaOption(strike, isCall, isAmerican, T);
+                        quotes.add(new VolSurfaceBuilder.Quote(option, Library.binom(option, smile, 200).FV));
+                    }
+                }
+            }
+        }
+        ForkJoinPool single = new ForkJoinPool(1);
+        VolSurfaceBuilder[] builders = {new VolSurfaceBuilder(200, single), new VolSurfaceBuilder(200)};
+        String[] names = {"Builder, 1 thread", "Builder, " + workers + " workers"};
+
+        double best = Double.MAX_VALUE;
+        int evals = 0;
+        for (int rep = 0; rep < 5; rep++) {
+            long start = System.nanoTime();
+            evals = 0;
+            for (VolSurfaceBuilder.Quote quote : quotes) {
+                evals += Library.impvol(quote.option, mkt.withPrice(quote.price), 200, 100, 1e-4, null).num_iter;
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-20s | %8.1f | %d%n", "Cold, quote by quote", best / 1e6, evals);
+        for (int b = 0; b < builders.length; b++) {
+            best = Double.MAX_VALUE;
+            List<Output> vols = null;
+            for (int rep = 0; rep < 5; rep++) {
+                long start = System.nanoTime();
+                vols = builders[b].impliedVols(quotes, mkt);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            evals = 0;
+            for (Output vol : vols) evals += vol.num_iter;
+            System.out.printf("%-20s | %8.1f | %d%n", names[b], best / 1e6, evals);
+        }
+        single.shutdown();
+    }
+
+    /**
+     * End-of-day style batch: contracts per second through PortfolioPricer,
+     * against pricing the same jobs one by one on the calling thread.
+     */
+    private static void benchPortfolioThroughput() {
+        int workers = ForkJoinPool.commonPool().getParallelism();
+        System.out.println("=== Portfolio throughput (" + workers + " workers) ===");
+        List<PortfolioPricer.Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            MarketData mkt = new MarketData(10.0, 90.0 + (i % 21), 0.04, 0.2 + 0.01 * (i % 10), 0.0);
+            Derivative deriv = i % 3 == 0 ?
+                new VanillaOption(100.0, true, false, 0.5) :
+                i % 3 == 1 ?
+                new VanillaOption(100.0, false, true, 0.5) :
+                new BermudanOption(100.0, false, 0.5, 0.1, 0.4);
+            jobs.add(new PortfolioPricer.Job(deriv, mkt, 100));
+        }
+        PortfolioPricer pricer = new PortfolioPricer();
+
+        for (int i = 0; i < 3; i++) {
+            sink += pricer.priceAll(jobs).get(0).FV;
+            for (PortfolioPricer.Job job : jobs) sink += Library.price(job.deriv, job.mkt, job.steps).FV;
+        }
+        long start = System.nanoTime();
+        for (PortfolioPricer.Job job : jobs) sink += Library.price(job.deriv, job.mkt, job.steps).FV;
+        double serialSec = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        sink += pricer.priceAll(jobs).get(0).FV;
+        double pooledSec = (System.nanoTime() - start) / 1e9;
+        System.out.printf("serial: %.0f contracts/s | pooled: %.0f contracts/s (%.0f per core)%n",
+                         jobs.size() / serialSec, jobs.size() / pooledSec,
+                         jobs.size() / pooledSec / workers);
+    }
+
+    /**
+     * Error against time for the lattice modes on an American put
+     * (S = K = 100, r = 5%, sigma = 20%, T = 1). The reference is the
+     * odd/even average of 20,000- and 20,001-step CRR lattices.
+     */
+    private static void benchConvergence() {
+        System.out.println("=== Convergence: American put, error vs time ===");
+        System.out.println("Mode        | Steps | abs error  | ms/op");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        VanillaOption amPut = new VanillaOption(100.0, false, true, 1.0);
+        double reference = 0.5 * (Library.binom(amPut, mkt, 20000).FV
+                                  + Library.binom(amPut, mkt, 20001).FV);
+
+        LatticeOptions plain = new LatticeOptions();
+        for (int steps : new int[] {100, 200, 500, 1000, 2000}) {
+            convergenceRow("crr", amPut, mkt, steps, plain, reference);
+        }
+        LatticeOptions richardson = LatticeOptions.richardson();
+        for (int steps : new int[] {50, 100, 200, 300}) {
+            convergenceRow("richardson", amPut, mkt, steps, richardson, reference);
+        }
+        LatticeOptions bbs = new LatticeOptions();
+        bbs.bbs = true;
+        for (int steps : new int[] {100, 200, 500, 1000}) {
+            convergenceRow("bbs", amPut, mkt, steps, bbs, reference);
+        }
+        LatticeOptions bbsr = LatticeOptions.bbsr();
+        for (int steps : new int[] {50, 100, 200, 300}) {
+            convergenceRow("bbsr", amPut, mkt, steps, bbsr, reference);
+        }
+        LatticeOptions lr = LatticeOptions.model(LatticeModel.LEISEN_REIMER);
+        for (int steps : new int[] {101, 201, 501, 1001}) {
+            convergenceRow("lr", amPut, mkt, steps, lr, reference);
+        }
+        System.out.println();
+
+        // Step parameterisations on an OTM European call, where the exact price is known
+        System.out.println("=== Convergence: European call K=105, error vs time ===");
+        System.out.println("Mode        | Steps | abs error  | ms/op");
+        VanillaOption euCall = new VanillaOption(105.0, true, false, 1.0);
+        double exact = BlackScholes.price(euCall, mkt).FV;
+        LatticeModel[] models = {LatticeModel.CRR, LatticeModel.JARROW_RUDD,
+                                 LatticeModel.TIAN, LatticeModel.LEISEN_REIMER};
+        String[] modelNames = {"crr", "jarrow-rudd", "tian", "lr"};
+        for (int m = 0; m < models.length; m++) {
+            LatticeOptions options = LatticeOptions.model(models[m]);
+            for (int steps : new int[] {51, 101, 201, 1001}) {
+                convergenceRow(modelNames[m], euCall, mkt, steps, options, exact);
+            }
+        }
+    }
+
+    /**
+     * Binomial against trinomial lattices on American and Bermudan puts:
+     * absolute error against CPU time, so equal-cost rows can be compared.
+     */
+    private static void benchTrinomial() {
+        System.out.println("=== Binomial vs trinomial: error vs time ===");
+        System.out.println("Contract | Engine | Steps | abs error  | ms/op");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        Derivative[] contracts = {
+            new VanillaOption(100.0, false, true, 1.0),
+            new BermudanOption(100.0, false, 1.0, 0.25, 0.75)
+        };
+        String[] names = {"american", "bermudan"};
+        for (int c = 0; c < contracts.length; c++) {
+            Derivative deriv = contracts[c];
+            double reference = 0.5 * (Library.binom(deriv, mkt, 20000).FV
+                                      + Library.binom(deriv, mkt, 20001).FV);
+            for (int steps : new int[] {100, 200, 500, 1000, 2000}) {
+                int ops = Math.max(3, 4000000 / (steps * steps));
+                double binom = 0, trinom = 0;
+                for (int i = 0; i < ops; i++) {
+                    binom = Library.binom(deriv, mkt, steps).FV;
+                    trinom = Library.trinom(deriv, mkt, steps).FV;
+                }
+                long start = System.nanoTime();
+                for (int i = 0; i < ops; i++) sink += Library.binom(deriv, mkt, steps).FV;
+                double binomMs = (System.nanoTime() - start) / 1e6 / ops;
+                start = System.nanoTime();
+                for (int i = 0; i < ops; i++) sink += Library.trinom(deriv, mkt, steps).FV;
+                double trinomMs = (System.nanoTime() - start) / 1e6 / ops;
+                System.out.printf("%-8s | binom  | %5d | %10.2e | %7.3f%n",
+                                  names[c], steps, Math.abs(binom - reference), binomMs);
+                System.out.printf("%-8s | trinom | %5d | %10.2e | %7.3f%n",
+                                  names[c], steps, Math.abs(trinom - reference), trinomMs);
+            }
+        }
+    }
+
+    /**
+     * Crank-Nicolson against the binomial lattice on an American put:
+     * absolute error against CPU time.
+     */
+    private static void benchFiniteDifference() {
+        System.out.println("=== Binomial vs Crank-Nicolson: American put, error vs time ===");
+        System.out.println("Engine | Steps | abs error  | ms/op");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        VanillaOption amPut = new VanillaOption(100.0, false, true, 1.0);
+        double reference = 0.5 * (Library.binom(amPut, mkt, 20000).FV
+                                  + Library.binom(amPut, mkt, 20001).FV);
+        for (int steps : new int[] {50, 100, 200, 500, 1000}) {
+            int ops = Math.max(3, 4000000 / (steps * steps));
+            double binom = 0, pde = 0;
+            for (int i = 0; i < ops; i++) {
+                binom = Library.binom(amPut, mkt, steps).FV;
+                pde = Library.pde(amPut, mkt, steps).FV;
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) sink += Library.binom(amPut, mkt, steps).FV;
+            double binomMs = (System.nanoTime() - start) / 1e6 / ops;
+            start = System.nanoTime();
+            for (int i = 0; i < ops; i++) sink += Library.pde(amPut, mkt, steps).FV;
+            double pdeMs = (System.nanoTime() - start) / 1e6 / ops;
+            System.out.printf("binom  | %5d | %10.2e | %7.3f%n", steps, Math.abs(binom - reference), binomMs);
+            System.out.printf("cn     | %5d | %10.2e | %7.3f%n", steps, Math.abs(pde - reference), pdeMs);
+        }
+    }
+
+    /**
+     * Longstaff-Schwartz on an American put: standard error and time for
+     * each variance-reduction setting, serial and parallel.
+     */
+    private static void benchMonteCarlo() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("=== Longstaff-Schwartz: American put, 100,000 paths x 50 dates (" + cores + " cores) ===");
+        System.out.println("Variance reduction | Threads  | FV       | std error | ms/op");
+        MarketData mkt = new MarketData(10.0, 100.0, 0.05, 0.2, 0.0);
+        VanillaOption amPut = new VanillaOption(100.0, false, true, 1.0);
+        String[] names = {"none", "antithetic", "control variate", "both"};
+        for (int mode = 0; mode < names.length; mode++) {
+            for (boolean parallel : new boolean[] {false, true}) {
+                MonteCarloOptions options = new MonteCarloOptions();
+                options.antithetic = (mode & 1) == 1;
+                options.controlVariate = (mode & 2) == 2;
+                options.parallel = parallel;
+                Output result = Library.lsm(amPut, mkt, options);
+                int ops = 5;
+                long start = System.nanoTime();
+                for (int i = 0; i < ops; i++) sink += Library.lsm(amPut, mkt, options).FV;
+                double ms = (System.nanoTime() - start) / 1e6 / ops;
+                System.out.printf("%-18s | %-8s | %8.4f | %9.5f | %7.1f%n", names[mode],
+                                  parallel ? "parallel" : "serial", result.FV, result.std_error, ms);
+            }
+        }
+    }
+
+    private static void convergenceRow(String mode, Derivative deriv, MarketData mkt, int steps,
+                                       LatticeOptions options, double reference) {
+        int ops = Math.max(3, 4000000 / (steps * steps));
+        double price = 0;
+        for (int i = 0; i < ops; i++) price = Library.binom(deriv, mkt, steps, options).FV;
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) sink += Library.binom(deriv, mkt, steps, options).FV;
+        double ms = (System.nanoTime() - start) / 1e6 / ops;
+        System.out.printf("%-11s | %5d | %10.2e | %7.3f%n", mode, steps, Math.abs(price - reference), ms);
+    }
+
+    /** The binom inner loops as they were before the spot table, for comparison */
+    private static double binomPowReference(Derivative deriv, MarketData mkt, int n) {
+        double dt = (deriv.getMaturity() - mkt.t0) / n;
+        double u = Math.exp(mkt.sigma * Math.sqrt(dt));
+        double d = 1.0 / u;
+        double p = (Math.exp(mkt.r * dt) - d) / (u - d);
+        double[] values = new double[n + 1];
+        for (int j = 0; j <= n; j++) {
+            values[j] = deriv.terminal(mkt.S * Math.pow(u, j) * Math.pow(d, n - j));
+        }
+        double discountFactor = Math.exp(-mkt.r * dt);
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = 0; j <= i; j++) {
+                double continuation = discountFactor * (p * values[j + 1] + (1 - p) * values[j]);
+                values[j] = deriv.exercise(mkt.S * Math.pow(u, j) * Math.pow(d, i - j),
+                                           continuation, mkt.t0 + i * dt);
+            }
+        }
+        return values[0];
+    }
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
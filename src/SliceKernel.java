@@ -0,0 +1,102 @@
+/**
+ * Continuation step of the binomial lattice: one slice of discounted
+ * expectations rolled back in place, optionally with the vanilla exercise
+ * test max(continuation, intrinsic) fused in.
+ *
+ * Library.binom runs every slice through a kernel. Vanilla contracts on
+ * an exercise date take the fused pass under VECTOR; other contracts, and
+ * everything under SCALAR, roll back as pure continuation and test
+ * exercise in a scalar scan from the edge of the slice, which stops at the
+ * first node that is not exercised. SCALAR is the plain loop. VECTOR
+ * processes the slice in SIMD lanes with the incubating Vector API
+ * (jdk.incubator.vector). Its source lives in src/vector, outside the
+ * default build, and is loaded by name; when it was not compiled in or the
+ * module is not enabled at run time, VECTOR is SCALAR.
+ *
+ * Both kernels evaluate df * (p * v[j+1] + (1-p) * v[j]) and the
+ * intrinsic value at scale * spot + shift with the same IEEE operations in
+ * the same order and no fused multiply-add, so they give bit-identical
+ * results.
+ */
+interface SliceKernel {
+
+    /**
+     * Replaces values[offset + j], j = 0..i, by the discounted expectation
+     * of nodes j and j+1 of the slice above.
+     */
+    void rollBack(double[] values, int offset, int i, double p, double discountFactor);
+
+    /** rollBack that also rolls the expected exercise times back */
+    void rollBack(double[] values, double[] times, int offset, int i, double p, double discountFactor);
+
+    /**
+     * rollBack fused with the exercise test of a vanilla option: node j
+     * becomes max(continuation, intrinsic) at spot scale * spots[k] + shift,
+     * k = spotOffset + 2j. Exercised nodes get exercise time t; the others
+     * roll their times back when tracking is on and keep them otherwise.
+     * Returns whether any node was exercised.
+     */
+    boolean rollBackExercise(double[] values, double[] times, boolean tracking, int offset, int i,
+                             double p, double discountFactor, double[] spots, int spotOffset,
+                             double scale, double shift, double strike, boolean call, double t);
+
+    /** Plain scalar loops; ascending j is safe in place */
+    SliceKernel SCALAR = new SliceKernel() {
+        @Override
+        public void rollBack(double[] values, int offset, int i, double p, double discountFactor) {
+            for (int j = offset, end = offset + i; j <= end; j++) {
+                values[j] = discountFactor * (p * values[j + 1] + (1 - p) * values[j]);
+            }
+        }
+
+        @Override
+        public void rollBack(double[] values, double[] times, int offset, int i, double p,
+                             double discountFactor) {
+            double q = 1 - p;
+            for (int j = offset, end = offset + i; j <= end; j++) {
+                values[j] = discountFactor * (p * values[j + 1] + (1 - p) * values[j]);
+                times[j] = p * times[j + 1] + q * times[j];
+            }
+        }
+
+        @Override
+        public boolean rollBackExercise(double[] values, double[] times, boolean tracking, int offset,
+                                        int i, double p, double discountFactor, double[] spots,
+                                        int spotOffset, double scale, double shift, double strike,
+                                        boolean call, double t) {
+            double q = 1 - p;
+            boolean exercised = false;
+            for (int j = offset, end = offset + i, k = spotOffset; j <= end; j++, k += 2) {
+                double continuation = discountFactor * (p * values[j + 1] + (1 - p) * values[j]);
+                double S = scale * spots[k] + shift;
+                double intrinsic = call ? Math.max(0, S - strike) : Math.max(0, strike - S);
+                if (intrinsic > continuation) {
+                    times[j] = t;
+                    exercised = true;
+                } else if (tracking) {
+                    times[j] = p * times[j + 1] + q * times[j];
+                }
+                values[j] = Math.max(continuation, intrinsic);
+            }
+            return exercised;
+        }
+    };
+
+    /** Vector API kernel when available, otherwise SCALAR */
+    SliceKernel VECTOR = Loader.load("VectorSliceKernel");
+
+    /** Resolves optional kernels without a compile-time reference */
+    final class Loader {
+        private Loader() {
+        }
+
+        static SliceKernel load(String className) {
+            try {
+                return (SliceKernel) Class.forName(className).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Not compiled in, or jdk.incubator.vector not enabled
+                return SCALAR;
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Boyle trinomial lattice engine.
+ * 
+ * Each node branches up by u = exp(sigma * sqrt(2 dt)), stays put, or
+ * moves down by 1/u, with probabilities matched to the risk-neutral mean
+ * and variance. Slice i has 2i+1 nodes and node (i, j) has spot
+ * S * u^(j - i), so the binomial spot table and the same Derivative
+ * callbacks are reused unchanged. Each step costs about twice a binomial
+ * step. In return the price has no odd/even oscillation in n, and every
+ * slice has a node at the root spot, which suits exercise windows and
+ * barriers.
+ * 
+ * Like Library.binom it rolls back on one O(n) vector, in place: node j
+ * of slice i reads j, j+1 and j+2 of slice i+1, so ascending j never
+ * overwrites a value still needed. Dividends are handled the same way
+ * too: the drift is r - q, and cash dividends shift each slice's spots
+ * by the escrow still to be paid. Expected exercise times are rolled back
+ * alongside the values, once some node has been exercised, for the fugit.
+ */
+final class TrinomialLattice {
+
+    private TrinomialLattice() {
+    }
+
+    /**
+     * Prices a derivative on an n-step trinomial lattice.
+     * 
+     * Delta, gamma and theta come from the three nodes of slice 1, which sit
+     * at S/u, S and S*u, so they cost no extra evaluations. Output.fugit is
+     * the risk-neutral expected exercise time, as in Library.binom.
+     * 
+     * The forward over half a step must lie strictly between the half-step
+     * down and up factors, or a probability would be negative; with a large
+     * carry against little vol that needs a shorter step, and
+     * IllegalArgumentException says so.
+     * 
+     * @param deriv The derivative to price
+     * @param mkt Market data for calculation
+     * @param n Number of time steps
+     * @param work Scratch arrays, grown as needed
+     * @return Output object containing pricing results
+     */
+    static Output price(final Derivative deriv, final MarketData mkt, int n, final LatticeWorkspace work) {
+        Output output = new Output();
+        
+        double T = deriv.getMaturity() - mkt.t0;
+        double dt = T / n;
+        MarketData process = mkt.escrowed(T);
+        double u = Math.exp(mkt.sigma * Math.sqrt(2 * dt));
+        double halfUp = Math.exp(mkt.sigma * Math.sqrt(0.5 * dt));
+        double halfDown = 1.0 / halfUp;
+        double halfGrowth = Math.exp(0.5 * (mkt.r - mkt.q) * dt);
+        if (!(halfGrowth > halfDown && halfGrowth < halfUp)) {
+            throw new IllegalArgumentException(
+                "Trinomial step has no valid risk-neutral probability; use more steps");
+        }
+        double pu = square((halfGrowth - halfDown) / (halfUp - halfDown));
+        double pd = square((halfUp - halfGrowth) / (halfUp - halfDown));
+        double pm = 1 - pu - pd;
+        double discountFactor = Math.exp(-mkt.r * dt);
+        
+        work.ensureTrinomial(n);
+        double[] values = work.values;
+        // Expected exercise time from each node; all maturity until the first exercise
+        double[] times = work.times;
+        // Node (i, j) has spot S * u^(j - i), stored at spots[n + j - i]
+        double[] spots = work.spots;
+        Library.fillSpotTable(spots, process.S, u, 1.0 / u, n);
+        double[] escrow = work.escrow;
+        Library.fillEscrow(escrow, mkt, T, n);
+        boolean[] schedule = work.schedule;
+        Library.fillExerciseSchedule(schedule, 0, deriv, mkt.t0, T, n);
+        
+        for (int j = 0; j <= 2 * n; j++) {
+            values[j] = deriv.terminal(spots[j]);
+            times[j] = deriv.getMaturity();
+        }
+        
+        double v10 = 0, v11 = 0, v12 = 0;
+        boolean tracking = false;
+        for (int i = n - 1; i >= 0; i--) {
+            if (schedule[i]) {
+                double t = mkt.t0 + Library.sliceTime(T, n, i);
+                double shift = escrow[i];
+                boolean exercised = false;
+                for (int j = 0, end = 2 * i, k = n - i; j <= end; j++, k++) {
+                    double continuation = discountFactor * (pu * values[j + 2] + pm * values[j + 1] +
+                                                            pd * values[j]);
+                    double value = deriv.exercise(spots[k] + shift, continuation, t);
+                    if (tracking) {
+                        double time = pu * times[j + 2] + pm * times[j + 1] + pd * times[j];
+                        times[j] = value > continuation ? t : time;
+                    } else if (value > continuation) {
+                        times[j] = t;
+                        exercised = true;
+                    }
+                    values[j] = value;
+                }
+                tracking |= exercised;
+            } else {
+                for (int j = 0, end = 2 * i; j <= end; j++) {
+                    values[j] = discountFactor * (pu * values[j + 2] + pm * values[j + 1] + pd * values[j]);
+                }
+                if (tracking) {
+                    for (int j = 0, end = 2 * i; j <= end; j++) {
+                        times[j] = pu * times[j + 2] + pm * times[j + 1] + pd * times[j];
+                    }
+                }
+            }
+            if (i == 1) {
+                v10 = values[0];
+                v11 = values[1];
+                v12 = values[2];
+            }
+        }
+        
+        output.FV = values[0];
+        output.fugit = times[0];
+        if (n >= 2) {
+            double sDown = spots[n - 1], s = spots[n], sUp = spots[n + 1];
+            output.delta = (v12 - v10) / (sUp - sDown);
+            output.gamma = ((v12 - v11) / (sUp - s) - (v11 - v10) / (s - sDown)) / (0.5 * (sUp - sDown));
+            // Node (1, 1) is off the root spot by the escrow paid down over one
+            // step; its value is shifted back along delta
+            output.theta = (v11 - output.delta * (escrow[1] - escrow[0]) - output.FV) / dt;
+        }
+        return output;
+    }
+
+    private static double square(double x) {
+        return x * x;
+    }
+}
@@ -2,14 +2,30 @@
  * Implements standard vanilla options (European and American).
  * This class handles both call and put options with either European
  * or American exercise style.
+ * 
+ * The engines call the primitive terminal and exercise callbacks. A
+ * subclass that only overrides the legacy terminalCondition or
+ * valuationTest is still honoured: the matching primitive then goes
+ * through Derivative's Node adapter to the override. Subclasses may narrow
+ * when exercise is allowed through exercisable, as BermudanOption does.
  */
 class VanillaOption extends Derivative {
+    /** Which payoff callbacks each class overrides, resolved once per class */
+    private static final ClassValue<Overrides> OVERRIDES = new ClassValue<Overrides>() {
+        @Override
+        protected Overrides computeValue(Class<?> type) {
+            return new Overrides(type);
+        }
+    };
+    
     /** Strike price of the option */
-    protected double strikePrice;
+    protected final double strikePrice;
     /** True for call option, false for put option */
-    protected boolean isCall;
+    protected final boolean isCall;
     /** True for American-style exercise, false for European */
-    protected boolean isAmerican;
+    protected final boolean isAmerican;
+    /** Callbacks this instance's class overrides */
+    private final Overrides overrides;
     
     /**
      * Creates a new vanilla option.
@@ -20,32 +36,130 @@ class VanillaOption extends Derivative {
      * @param maturity Time to expiration
      */
     public VanillaOption(double strike, boolean isCall, boolean isAmerican, double maturity) {
+        super(maturity);
         validateInputs(strike, maturity);
         this.strikePrice = strike;
         this.isCall = isCall;
         this.isAmerican = isAmerican;
-        this.maturity = maturity;
+        this.overrides = OVERRIDES.get(getClass());
     }
     
+    public double getStrike() {
+        return strikePrice;
+    }
+
+    public boolean isCall() {
+        return isCall;
+    }
+
+    public boolean isAmerican() {
+        return isAmerican;
+    }
+
     private void validateInputs(double strike, double maturity) {
         if (strike <= 0) throw new IllegalArgumentException("Strike price must be positive");
         if (maturity <= 0) throw new IllegalArgumentException("Maturity must be positive");
     }
 
+    /**
+     * Whether the payoff and exercise value are this class's own: no
+     * subclass overrides terminal, exercise, terminalCondition or
+     * valuationTest. Engines only take closed-form shortcuts on the payoff
+     * (Black-Scholes values, the vector exercise pass) when this holds.
+     */
+    boolean hasVanillaPayoff() {
+        return overrides.vanillaPayoff;
+    }
+
+    /** Whether deriv is a VanillaOption with its own payoff (hasVanillaPayoff) */
+    static boolean isVanilla(Derivative deriv) {
+        return deriv instanceof VanillaOption && ((VanillaOption) deriv).hasVanillaPayoff();
+    }
+
     @Override
     public void terminalCondition(Node n) {
-        n.optionValue = isCall ? 
-            Math.max(0, n.stockPrice - strikePrice) :
-            Math.max(0, strikePrice - n.stockPrice);
+        n.optionValue = payoff(n.stockPrice);
     }
 
     @Override
     public void valuationTest(Node n, double currentTime) {
-        if (isAmerican) {
+        n.optionValue = exerciseValue(n.stockPrice, n.optionValue, currentTime);
+    }
+
+    @Override
+    public double terminal(double S) {
+        return overrides.terminalCondition ? super.terminal(S) : payoff(S);
+    }
+
+    /**
+     * Puts are exercised below a critical spot, calls above one. An
+     * overridden exercise rule may not be one-sided, so it is tested at
+     * every node.
+     */
+    @Override
+    public int exerciseSide() {
+        if (!overrides.vanillaPayoff) return EXERCISE_ANYWHERE;
+        return isCall ? EXERCISE_ABOVE : EXERCISE_BELOW;
+    }
+
+    /**
+     * European options with the class's own payoff and exercise rule have a
+     * Black-Scholes value. Subclasses that change either, even only through
+     * exercisable, are priced on the lattice unless they override this.
+     */
+    @Override
+    public boolean hasClosedForm() {
+        return !isAmerican && overrides.closedForm;
+    }
+
+    /** American options may be exercised at any time, European ones never */
+    @Override
+    public boolean exercisable(double t) {
+        return isAmerican;
+    }
+
+    @Override
+    public double exercise(double S, double cont, double t) {
+        return overrides.valuationTest ? super.exercise(S, cont, t) : exerciseValue(S, cont, t);
+    }
+
+    private double payoff(double S) {
+        return isCall ? Math.max(0, S - strikePrice) : Math.max(0, strikePrice - S);
+    }
+
+    /** The continuation value, or the intrinsic value if higher where exercise is allowed */
+    private double exerciseValue(double S, double cont, double t) {
+        if (exercisable(t)) {
             double intrinsicValue = isCall ? 
-                Math.max(0, n.stockPrice - strikePrice) :
-                Math.max(0, strikePrice - n.stockPrice);
-            n.optionValue = Math.max(n.optionValue, intrinsicValue);
+                Math.max(0, S - strikePrice) :
+                Math.max(0, strikePrice - S);
+            return Math.max(cont, intrinsicValue);
+        }
+        return cont;
+    }
+
+    /** Which of the payoff callbacks a class overrides below VanillaOption */
+    private static final class Overrides {
+        final boolean terminalCondition;
+        final boolean valuationTest;
+        final boolean vanillaPayoff;
+        final boolean closedForm;
+
+        Overrides(Class<?> type) {
+            terminalCondition = overrides(type, "terminalCondition", Node.class);
+            valuationTest = overrides(type, "valuationTest", Node.class, double.class);
+            vanillaPayoff = !terminalCondition && !valuationTest
+                            && !overrides(type, "terminal", double.class)
+                            && !overrides(type, "exercise", double.class, double.class, double.class);
+            closedForm = vanillaPayoff && !overrides(type, "exercisable", double.class);
+        }
+
+        private static boolean overrides(Class<?> type, String name, Class<?>... parameters) {
+            try {
+                return type.getMethod(name, parameters).getDeclaringClass() != VanillaOption.class;
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException(e);
+            }
         }
     }
 }
@@ -0,0 +1,131 @@
+import java.util.Arrays;
+
+/**
+ * Deterministic volatility term structure built from Black (term) vols at
+ * pillar times.
+ *
+ * Total variance w(t) = sigma(t)^2 * t is interpolated linearly between
+ * pillars, so the forward variance is constant within each interval.
+ * Before the first pillar the first vol applies; beyond the last, the last
+ * forward variance. w must not decrease, which rules out calendar
+ * arbitrage. Times are measured from the snapshot's t0.
+ *
+ * Attach a curve with MarketData.withVolCurve. The binomial lattice spaces
+ * its slices at equal steps of w, so every slice has the same u and the
+ * tree still recombines. An interval with zero forward variance falls
+ * inside one slice, which the lattice centres on its forward.
+ */
+final class VolCurve {
+    /** Pillar times, positive and strictly ascending */
+    private final double[] times;
+    /** Total variance at each pillar */
+    private final double[] variances;
+
+    /**
+     * Creates a curve from term vols.
+     *
+     * @param times Pillar times, positive and strictly ascending
+     * @param vols Black volatility to each pillar
+     * @throws IllegalArgumentException if the pillars are invalid or the
+     *         total variance decreases
+     */
+    public VolCurve(double[] times, double[] vols) {
+        this(times, vols, true);
+    }
+
+    /**
+     * Creates a curve from total variances, with no round trip through
+     * vols, so variances that are equal stay equal.
+     *
+     * @param times Pillar times, positive and strictly ascending
+     * @param variances Total variance to each pillar, positive and non-decreasing
+     * @return The curve
+     * @throws IllegalArgumentException if the pillars are invalid or the
+     *         total variance decreases
+     */
+    static VolCurve fromVariances(double[] times, double[] variances) {
+        return new VolCurve(times, variances, false);
+    }
+
+    /** levels are vols when fromVols, total variances otherwise */
+    private VolCurve(double[] times, double[] levels, boolean fromVols) {
+        if (times.length == 0 || times.length != levels.length)
+            throw new IllegalArgumentException("Curve needs one volatility per pillar time");
+        this.times = times.clone();
+        this.variances = new double[times.length];
+        for (int k = 0; k < times.length; k++) {
+            if (!(times[k] > (k == 0 ? 0 : times[k - 1])))
+                throw new IllegalArgumentException("Pillar times must be positive and ascending");
+            if (!(levels[k] > 0) || Double.isInfinite(levels[k]))
+                throw new IllegalArgumentException("Volatility must be positive");
+            variances[k] = fromVols ? levels[k] * levels[k] * times[k] : levels[k];
+            if (k > 0 && variances[k] < variances[k - 1])
+                throw new IllegalArgumentException("Total variance must not decrease with maturity");
+        }
+    }
+
+    /**
+     * Total variance from t0 to t0 + t.
+     *
+     * @param t Time measured from t0
+     * @return w(t), 0 at t = 0
+     */
+    public double variance(double t) {
+        if (t <= times[0]) return variances[0] / times[0] * t;
+        int last = times.length - 1;
+        int k = Arrays.binarySearch(times, t);
+        if (k >= 0) return variances[k];
+        int hi = Math.min(-k - 1, last);
+        int lo = hi - 1;
+        if (lo < 0) return variances[0] / times[0] * t;
+        double slope = (variances[hi] - variances[lo]) / (times[hi] - times[lo]);
+        int anchor = t > times[last] ? hi : lo;
+        return variances[anchor] + slope * (t - times[anchor]);
+    }
+
+    /**
+     * Black volatility to t0 + t.
+     *
+     * @param t Time measured from t0
+     * @return sqrt(w(t) / t); the first vol at t = 0
+     */
+    public double vol(double t) {
+        return Math.sqrt(t > 0 ? variance(t) / t : variances[0] / times[0]);
+    }
+
+    /**
+     * Instantaneous forward variance at t0 + t, the slope of w(t); at a
+     * pillar, the slope of the interval that starts there.
+     *
+     * @param t Time measured from t0
+     * @return The local variance rate sigma(t)^2
+     */
+    public double forwardVariance(double t) {
+        int last = times.length - 1;
+        if (t < times[0] || last == 0) return variances[0] / times[0];
+        int k = Arrays.binarySearch(times, t);
+        int hi = Math.min(k >= 0 ? k + 1 : -k - 1, last);
+        return (variances[hi] - variances[hi - 1]) / (times[hi] - times[hi - 1]);
+    }
+
+    /**
+     * Inverse of variance: the earliest time by which w total variance has
+     * accrued. Intervals with zero forward variance are skipped over.
+     *
+     * @param w Total variance, non-negative
+     * @return The time t with variance(t) = w
+     */
+    public double time(double w) {
+        if (w <= variances[0]) return w / variances[0] * times[0];
+        int last = times.length - 1;
+        int hi = 1;
+        while (hi < last && variances[hi] < w) hi++;
+        int lo = hi - 1;
+        if (hi > last) return w / variances[0] * times[0];
+        double slope = (variances[hi] - variances[lo]) / (times[hi] - times[lo]);
+        if (w > variances[last]) {
+            return times[last] + (w - variances[last]) / slope;
+        }
+        return times[lo] + (w - variances[lo]) / slope;
+    }
+}
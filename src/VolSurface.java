@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+/**
+ * Implied volatility surface on a grid of expiries by strikes, as built by
+ * VolSurfaceBuilder.
+ *
+ * Total variance w = sigma^2 * T is stored in one flat row-major array,
+ * one row per expiry over a uniform strike grid. A strike is located by
+ * one division rather than a search, and only the handful of expiries is
+ * searched. Between grid points w is linear in strike and in time. Strikes
+ * outside the grid take the nearest edge; times before the first expiry
+ * take its vol, and times beyond the last its last forward variance, as in
+ * VolCurve. Expiries are measured from the snapshot's t0.
+ *
+ * The surface copies its arrays, so it stays immutable. If each grid
+ * strike's variance does not fall with expiry, as VolSurfaceBuilder
+ * clamps it, neither does the interpolated variance at any strike:
+ * linear weights in strike and time preserve the order.
+ */
+final class VolSurface {
+    /** Expiries, positive and strictly ascending */
+    private final double[] expiries;
+    /** Lowest grid strike */
+    private final double strikeMin;
+    /** Spacing of the strike grid */
+    private final double strikeStep;
+    /** Number of grid strikes */
+    private final int strikeCount;
+    /** Total variance at expiry e and grid strike k, at e * strikeCount + k */
+    private final double[] variances;
+
+    VolSurface(double[] expiries, double strikeMin, double strikeStep, int strikeCount, double[] variances) {
+        this.expiries = expiries.clone();
+        this.strikeMin = strikeMin;
+        this.strikeStep = strikeStep;
+        this.strikeCount = strikeCount;
+        this.variances = variances.clone();
+    }
+
+    /**
+     * Black volatility for a strike and expiry.
+     *
+     * @param T Time to expiry, measured from t0
+     * @param strike Strike price
+     * @return The interpolated implied volatility
+     */
+    public double vol(double T, double strike) {
+        if (!(T > 0)) T = expiries[0];
+        return Math.sqrt(variance(T, strike) / T);
+    }
+
+    /**
+     * Total implied variance sigma^2 * T for a strike and expiry.
+     *
+     * @param T Time to expiry, measured from t0
+     * @param strike Strike price
+     * @return The interpolated total variance
+     */
+    public double variance(double T, double strike) {
+        int last = expiries.length - 1;
+        if (T <= expiries[0]) return row(0, strike) / expiries[0] * T;
+        int e = Arrays.binarySearch(expiries, T);
+        if (e >= 0) return row(e, strike);
+        int hi = Math.min(-e - 1, last);
+        int lo = hi - 1;
+        if (lo < 0) return row(0, strike) / expiries[0] * T;
+        double wLo = row(lo, strike), wHi = row(hi, strike);
+        double slope = (wHi - wLo) / (expiries[hi] - expiries[lo]);
+        return T > expiries[last] ? wHi + slope * (T - expiries[last])
+                                  : wLo + slope * (T - expiries[lo]);
+    }
+
+    /**
+     * The surface's term structure at one strike, for pricing that strike
+     * on MarketData.withVolCurve.
+     *
+     * @param strike Strike price
+     * @return Term vols at the surface's expiries
+     */
+    public VolCurve volCurve(double strike) {
+        double[] levels = new double[expiries.length];
+        for (int e = 0; e < expiries.length; e++) {
+            levels[e] = row(e, strike);
+        }
+        return VolCurve.fromVariances(expiries, levels);
+    }
+
+    /** The expiries of the grid rows */
+    public double[] expiries() {
+        return expiries.clone();
+    }
+
+    /** Total variance of expiry row e at a strike, linear on the strike grid */
+    private double row(int e, double strike) {
+        double x = (strike - strikeMin) / strikeStep;
+        int base = e * strikeCount;
+        if (!(x > 0)) return variances[base];
+        if (x >= strikeCount - 1) return variances[base + strikeCount - 1];
+        int k = (int) x;
+        double frac = x - k;
+        return variances[base + k] + frac * (variances[base + k + 1] - variances[base + k]);
+    }
+}
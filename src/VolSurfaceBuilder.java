@@ -0,0 +1,319 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Implied volatilities for a whole options chain, and the gridded surface
+ * they span.
+ *
+ * Quotes are grouped into smile rows: one expiry, one side (call or put)
+ * and one exercise style. Rows are independent and are solved in parallel
+ * on a ForkJoinPool, split the same way as in PortfolioPricer. Within a
+ * row the strikes are solved in order, walking out from the strike
+ * nearest the spot, and each Library.impvol search starts from its
+ * neighbour's solution. Neighbouring vols are close, so the tree-based
+ * search for early-exercise quotes usually converges in two or three
+ * lattice evaluations instead of starting cold at mkt.sigma. European
+ * quotes are inverted in closed form and ignore the start.
+ *
+ * build fits each expiry's smile with a natural cubic spline in total
+ * variance through the converged vols, resamples it onto a uniform strike
+ * grid and returns a VolSurface. Quotes that share an expiry and strike
+ * (call and put, several styles) are averaged.
+ */
+final class VolSurfaceBuilder {
+    /** Strike grid points per expiry row of the surface */
+    static final int STRIKE_POINTS = 101;
+    /** Leaf tasks are cut to about this many per worker, for stealing */
+    private static final int TASKS_PER_WORKER = 4;
+    /** Lattice evaluations allowed per quote */
+    private static final int MAX_ITER = 100;
+    /** Price tolerance of each inversion */
+    private static final double TOL = 1e-4;
+
+    /** Quotes of one row sort together, by strike within the row */
+    private static final Comparator<VanillaOption> ROW_ORDER =
+        Comparator.comparingDouble(VanillaOption::getMaturity)
+                  .thenComparing(VanillaOption::isCall)
+                  .thenComparingInt(VolSurfaceBuilder::style)
+                  .thenComparingDouble(VolSurfaceBuilder::windowBegin)
+                  .thenComparingDouble(VolSurfaceBuilder::windowEnd);
+
+    private final int steps;
+    private final ForkJoinPool pool;
+
+    /**
+     * A market quote: one option and its price.
+     */
+    public static final class Quote {
+        public final VanillaOption option;
+        public final double price;
+
+        public Quote(VanillaOption option, double price) {
+            if (!(price > 0)) throw new IllegalArgumentException("Price must be positive");
+            this.option = option;
+            this.price = price;
+        }
+    }
+
+    /**
+     * Creates a builder that runs on the common pool.
+     *
+     * @param steps Lattice steps for quotes with early exercise
+     */
+    public VolSurfaceBuilder(int steps) {
+        this(steps, ForkJoinPool.commonPool());
+    }
+
+    public VolSurfaceBuilder(int steps, ForkJoinPool pool) {
+        if (steps <= 0) throw new IllegalArgumentException("Number of steps must be positive");
+        this.steps = steps;
+        this.pool = pool;
+    }
+
+    /**
+     * Inverts every quote and returns the results in input order.
+     *
+     * @param quotes The chain; any mix of expiries, sides and styles
+     * @param mkt Market data; Price is ignored, sigma is the first guess
+     * @return One Output per quote, as from Library.impvol
+     */
+    public List<Output> impliedVols(final List<Quote> quotes, final MarketData mkt) {
+        Output[] results = new Output[quotes.size()];
+        if (quotes.isEmpty()) return Arrays.asList(results);
+        Integer[] boxed = new Integer[quotes.size()];
+        for (int i = 0; i < boxed.length; i++) boxed[i] = i;
+        Comparator<VanillaOption> byStrike = ROW_ORDER.thenComparingDouble(VanillaOption::getStrike);
+        Arrays.sort(boxed, (a, b) -> byStrike.compare(quotes.get(a).option, quotes.get(b).option));
+        int[] order = new int[boxed.length];
+        int[] rowStarts = new int[boxed.length + 1];
+        int rows = 0;
+        for (int i = 0; i < order.length; i++) {
+            order[i] = boxed[i];
+            if (i == 0 || ROW_ORDER.compare(quotes.get(order[i - 1]).option, quotes.get(order[i]).option) != 0) {
+                rowStarts[rows++] = i;
+            }
+        }
+        rowStarts[rows] = order.length;
+        int leafSize = Math.max(1, rows / (pool.getParallelism() * TASKS_PER_WORKER));
+        pool.invoke(new RowTask(quotes, mkt, order, rowStarts, results, 0, rows, leafSize));
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Inverts every quote and fits the surface.
+     *
+     * @param quotes The chain
+     * @param mkt Market data; Price is ignored, sigma is the first guess
+     * @return The implied volatility surface
+     * @throws IllegalArgumentException if no quote converged
+     */
+    public VolSurface build(final List<Quote> quotes, final MarketData mkt) {
+        return build(quotes, impliedVols(quotes, mkt), mkt);
+    }
+
+    /**
+     * Fits the surface to vols already solved by impliedVols. Quotes that
+     * did not converge are left out.
+     *
+     * @param quotes The chain
+     * @param vols The impliedVols results, in quote order
+     * @param mkt Market data; t0 anchors the expiries
+     * @return The implied volatility surface
+     * @throws IllegalArgumentException if no quote converged
+     */
+    public VolSurface build(final List<Quote> quotes, final List<Output> vols, final MarketData mkt) {
+        int count = 0;
+        double[] expiry = new double[quotes.size()];
+        double[] strike = new double[quotes.size()];
+        double[] vol = new double[quotes.size()];
+        Integer[] boxed = new Integer[quotes.size()];
+        for (int i = 0; i < quotes.size(); i++) {
+            double T = quotes.get(i).option.getMaturity() - mkt.t0;
+            if (!vols.get(i).converged || !(T > 0)) continue;
+            expiry[count] = T;
+            strike[count] = quotes.get(i).option.getStrike();
+            vol[count] = vols.get(i).impvol;
+            boxed[count] = count;
+            count++;
+        }
+        if (count == 0) throw new IllegalArgumentException("No quote converged to an implied volatility");
+        Arrays.sort(boxed, 0, count, (a, b) -> expiry[a] != expiry[b] ? Double.compare(expiry[a], expiry[b])
+                                                                       : Double.compare(strike[a], strike[b]));
+
+        double strikeMin = Double.MAX_VALUE, strikeMax = -Double.MAX_VALUE;
+        int expiries = 0;
+        for (int i = 0; i < count; i++) {
+            strikeMin = Math.min(strikeMin, strike[i]);
+            strikeMax = Math.max(strikeMax, strike[i]);
+            if (i == 0 || expiry[boxed[i]] != expiry[boxed[i - 1]]) expiries++;
+        }
+        int points = strikeMax > strikeMin ? STRIKE_POINTS : 1;
+        double strikeStep = points > 1 ? (strikeMax - strikeMin) / (points - 1) : 1.0;
+
+        // One smile row per expiry: average vols at equal strikes, then spline w
+        double[] times = new double[expiries];
+        double[] variances = new double[expiries * points];
+        double[] nodeStrikes = new double[count];
+        double[] nodeVariances = new double[count];
+        int e = 0;
+        for (int from = 0; from < count; e++) {
+            double T = expiry[boxed[from]];
+            int nodes = 0;
+            int to = from;
+            while (to < count && expiry[boxed[to]] == T) {
+                double K = strike[boxed[to]];
+                double sum = 0;
+                int same = 0;
+                for (; to < count && expiry[boxed[to]] == T && strike[boxed[to]] == K; to++, same++) {
+                    sum += vol[boxed[to]];
+                }
+                double mean = sum / same;
+                nodeStrikes[nodes] = K;
+                nodeVariances[nodes] = mean * mean * T;
+                nodes++;
+            }
+            times[e] = T;
+            fillRow(nodeStrikes, nodeVariances, nodes, strikeMin, strikeStep, points,
+                    Library.IMPVOL_MIN * Library.IMPVOL_MIN * T, variances, e * points);
+            if (e > 0) {
+                // Total variance must not fall with expiry at any strike
+                for (int k = 0; k < points; k++) {
+                    int at = e * points + k;
+                    variances[at] = Math.max(variances[at], variances[at - points]);
+                }
+            }
+            from = to;
+        }
+        return new VolSurface(times, strikeMin, strikeStep, points, variances);
+    }
+
+    /**
+     * Resamples one smile onto the strike grid with a natural cubic spline
+     * through (strike, w). Grid strikes outside the quoted range take the
+     * nearest quoted w, and no point falls below floor.
+     */
+    private static void fillRow(double[] x, double[] y, int nodes, double strikeMin, double strikeStep,
+                                int points, double floor, double[] out, int offset) {
+        double[] curvature = splineCurvature(x, y, nodes);
+        int interval = 0;
+        for (int k = 0; k < points; k++) {
+            double K = strikeMin + k * strikeStep;
+            double w;
+            if (nodes == 1 || K <= x[0]) {
+                w = y[0];
+            } else if (K >= x[nodes - 1]) {
+                w = y[nodes - 1];
+            } else {
+                while (K > x[interval + 1]) interval++;
+                double h = x[interval + 1] - x[interval];
+                double a = (x[interval + 1] - K) / h, b = 1 - a;
+                w = a * y[interval] + b * y[interval + 1]
+                    + ((a * a * a - a) * curvature[interval] + (b * b * b - b) * curvature[interval + 1]) * h * h / 6;
+            }
+            out[offset + k] = Math.max(w, floor);
+        }
+    }
+
+    /** Second derivatives of the natural cubic spline through the nodes (Thomas algorithm) */
+    private static double[] splineCurvature(double[] x, double[] y, int nodes) {
+        double[] curvature = new double[nodes];
+        if (nodes < 3) return curvature;
+        double[] diag = new double[nodes];
+        double[] rhs = new double[nodes];
+        for (int i = 1; i < nodes - 1; i++) {
+            double hLo = x[i] - x[i - 1], hHi = x[i + 1] - x[i];
+            diag[i] = 2 * (hLo + hHi);
+            rhs[i] = 6 * ((y[i + 1] - y[i]) / hHi - (y[i] - y[i - 1]) / hLo);
+            if (i > 1) {
+                double m = hLo / diag[i - 1];
+                diag[i] -= m * hLo;
+                rhs[i] -= m * rhs[i - 1];
+            }
+        }
+        for (int i = nodes - 2; i >= 1; i--) {
+            curvature[i] = (rhs[i] - (x[i + 1] - x[i]) * curvature[i + 1]) / diag[i];
+        }
+        return curvature;
+    }
+
+    /** 0 European, 1 American, 2 Bermudan */
+    private static int style(VanillaOption option) {
+        return option instanceof BermudanOption ? 2 : option.isAmerican() ? 1 : 0;
+    }
+
+    private static double windowBegin(VanillaOption option) {
+        return option instanceof BermudanOption ? ((BermudanOption) option).window_begin : 0;
+    }
+
+    private static double windowEnd(VanillaOption option) {
+        return option instanceof BermudanOption ? ((BermudanOption) option).window_end : 0;
+    }
+
+    @SuppressWarnings("serial")
+    private final class RowTask extends RecursiveAction {
+        private final List<Quote> quotes;
+        private final MarketData mkt;
+        private final int[] order;
+        private final int[] rowStarts;
+        private final Output[] results;
+        /** Range of rows [from, to) */
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        RowTask(List<Quote> quotes, MarketData mkt, int[] order, int[] rowStarts, Output[] results,
+                int from, int to, int leafSize) {
+            this.quotes = quotes;
+            this.mkt = mkt;
+            this.order = order;
+            this.rowStarts = rowStarts;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > leafSize) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RowTask(quotes, mkt, order, rowStarts, results, from, mid, leafSize),
+                          new RowTask(quotes, mkt, order, rowStarts, results, mid, to, leafSize));
+                return;
+            }
+            for (int row = from; row < to; row++) {
+                solveRow(rowStarts[row], rowStarts[row + 1]);
+            }
+        }
+
+        /** Solves order[first..end) outwards from the strike nearest the spot */
+        private void solveRow(int first, int end) {
+            int atm = first;
+            for (int i = first + 1; i < end; i++) {
+                if (Math.abs(strike(i) - mkt.S) < Math.abs(strike(atm) - mkt.S)) atm = i;
+            }
+            double T = quotes.get(order[atm]).option.getMaturity() - mkt.t0;
+            double start = solve(atm, T > 0 ? Math.sqrt(mkt.variance(T) / T) : mkt.sigma);
+            double guess = start;
+            for (int i = atm + 1; i < end; i++) guess = solve(i, guess);
+            guess = start;
+            for (int i = atm - 1; i >= first; i--) guess = solve(i, guess);
+        }
+
+        /** Inverts quote order[i] from guess; returns the next guess */
+        private double solve(int i, double guess) {
+            Quote quote = quotes.get(order[i]);
+            Output result = Library.impvol(quote.option, mkt.withPrice(quote.price).withSigma(guess),
+                                           steps, MAX_ITER, TOL, null);
+            results[order[i]] = result;
+            return result.converged ? result.impvol : guess;
+        }
+
+        private double strike(int i) {
+            return quotes.get(order[i]).option.getStrike();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SliceKernel on the Vector API, in the widest lanes the CPU offers
+ * (256-bit AVX2 or 512-bit AVX-512).
+ *
+ * This file is outside the default build because the API is incubating.
+ * Compile and run with the module enabled (JDK 16 or later):
+ *
+ *   javac --add-modules jdk.incubator.vector -d out src/*.java src/vector/*.java
+ *   java --add-modules jdk.incubator.vector -cp out PricingBenchmark
+ *
+ * Each chunk loads nodes j..j+L-1 and j+1..j+L before storing j..j+L-1,
+ * and node j+L is only overwritten by the next chunk, so the in-place
+ * update reads the same values as the scalar loop. The tail is scalar.
+ *
+ * The exercise pass gathers every other entry of the spot table (node j
+ * of slice i sits at spots[n - i + 2j]), takes the intrinsic value with a
+ * lane-wise max against zero and the node value with a max against the
+ * continuation. The exercised lanes form a mask, which sets their
+ * exercise times to t.
+ */
+final class VectorSliceKernel implements SliceKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    /** Gather offsets of consecutive nodes in the spot table */
+    private static final int[] NODE_SPOTS = new int[SPECIES.length()];
+
+    static {
+        for (int lane = 0; lane < NODE_SPOTS.length; lane++) {
+            NODE_SPOTS[lane] = 2 * lane;
+        }
+    }
+
+    @Override
+    public void rollBack(double[] values, int offset, int i, double p, double discountFactor) {
+        double q = 1 - p;
+        int j = offset, end = offset + i;
+        for (int bound = offset + SPECIES.loopBound(i + 1); j < bound; j += SPECIES.length()) {
+            DoubleVector down = DoubleVector.fromArray(SPECIES, values, j);
+            DoubleVector up = DoubleVector.fromArray(SPECIES, values, j + 1);
+            up.mul(p).add(down.mul(q)).mul(discountFactor).intoArray(values, j);
+        }
+        for (; j <= end; j++) {
+            values[j] = discountFactor * (p * values[j + 1] + q * values[j]);
+        }
+    }
+
+    @Override
+    public void rollBack(double[] values, double[] times, int offset, int i, double p,
+                         double discountFactor) {
+        double q = 1 - p;
+        int j = offset, end = offset + i;
+        for (int bound = offset + SPECIES.loopBound(i + 1); j < bound; j += SPECIES.length()) {
+            DoubleVector down = DoubleVector.fromArray(SPECIES, values, j);
+            DoubleVector up = DoubleVector.fromArray(SPECIES, values, j + 1);
+            up.mul(p).add(down.mul(q)).mul(discountFactor).intoArray(values, j);
+            DoubleVector later = DoubleVector.fromArray(SPECIES, times, j + 1);
+            DoubleVector sooner = DoubleVector.fromArray(SPECIES, times, j);
+            later.mul(p).add(sooner.mul(q)).intoArray(times, j);
+        }
+        for (; j <= end; j++) {
+            values[j] = discountFactor * (p * values[j + 1] + q * values[j]);
+            times[j] = p * times[j + 1] + q * times[j];
+        }
+    }
+
+    @Override
+    public boolean rollBackExercise(double[] values, double[] times, boolean tracking, int offset, int i,
+                                    double p, double discountFactor, double[] spots, int spotOffset,
+                                    double scale, double shift, double strike, boolean call, double t) {
+        double q = 1 - p;
+        boolean exercised = false;
+        int j = offset, k = spotOffset, end = offset + i;
+        for (int bound = offset + SPECIES.loopBound(i + 1); j < bound;
+             j += SPECIES.length(), k += 2 * SPECIES.length()) {
+            DoubleVector down = DoubleVector.fromArray(SPECIES, values, j);
+            DoubleVector up = DoubleVector.fromArray(SPECIES, values, j + 1);
+            DoubleVector continuation = up.mul(p).add(down.mul(q)).mul(discountFactor);
+            DoubleVector spot = DoubleVector.fromArray(SPECIES, spots, k, NODE_SPOTS, 0).mul(scale).add(shift);
+            DoubleVector intrinsic = (call ? spot.sub(strike) : DoubleVector.broadcast(SPECIES, strike).sub(spot))
+                .max(0);
+            VectorMask<Double> exercise = intrinsic.compare(VectorOperators.GT, continuation);
+            continuation.max(intrinsic).intoArray(values, j);
+            if (tracking) {
+                DoubleVector later = DoubleVector.fromArray(SPECIES, times, j + 1);
+                DoubleVector sooner = DoubleVector.fromArray(SPECIES, times, j);
+                later.mul(p).add(sooner.mul(q)).blend(t, exercise).intoArray(times, j);
+            } else if (exercise.anyTrue()) {
+                DoubleVector.broadcast(SPECIES, t).intoArray(times, j, exercise);
+            }
+            exercised |= exercise.anyTrue();
+        }
+        for (; j <= end; j++, k += 2) {
+            double continuation = discountFactor * (p * values[j + 1] + q * values[j]);
+            double S = scale * spots[k] + shift;
+            double intrinsic = call ? Math.max(0, S - strike) : Math.max(0, strike - S);
+            if (intrinsic > continuation) {
+                times[j] = t;
+                exercised = true;
+            } else if (tracking) {
+                times[j] = p * times[j + 1] + q * times[j];
+            }
+            values[j] = Math.max(continuation, intrinsic);
+        }
+        return exercised;
+    }
+}